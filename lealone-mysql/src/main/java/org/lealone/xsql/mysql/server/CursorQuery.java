@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server;
+
+import org.lealone.db.result.ResultTarget;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.ManipulationStatement;
+import org.lealone.sql.query.Query;
+import org.lealone.xsql.mysql.server.protocol.BinaryRowDataPacket;
+
+/**
+ * 打开游标时执行的语句。
+ *
+ * 查询产生的记录直接编码成二进制协议的行数据包放到RowSpool中，不需要先生成完整的结果集，
+ * 执行方式跟其他语句一样，执行完后由COM_STMT_FETCH按客户端要求的行数从RowSpool中读出。
+ */
+class CursorQuery extends ManipulationStatement implements ResultTarget {
+
+    private final Query query;
+    private final int[] types;
+    private final RowSpool spool;
+    private int rowCount;
+
+    CursorQuery(ServerSession session, Query query, int[] types, RowSpool spool) {
+        super(session);
+        this.query = query;
+        this.types = types;
+        this.spool = spool;
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.SELECT;
+    }
+
+    @Override
+    public int update() {
+        rowCount = 0;
+        query.query(0, this);
+        return rowCount;
+    }
+
+    @Override
+    public void addRow(Value[] values) {
+        rowCount++;
+        spool.add(new BinaryRowDataPacket(types, values));
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+}
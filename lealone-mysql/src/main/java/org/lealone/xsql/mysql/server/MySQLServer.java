@@ -17,18 +17,67 @@
  */
 package org.lealone.xsql.mysql.server;
 
+import java.security.KeyPair;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
+import org.lealone.common.util.StringUtils;
+import org.lealone.db.ConnectionInfo;
+import org.lealone.db.Constants;
+import org.lealone.db.Database;
 import org.lealone.db.LealoneDatabase;
+import org.lealone.db.auth.User;
 import org.lealone.net.WritableChannel;
 import org.lealone.server.AsyncServer;
 import org.lealone.server.Scheduler;
+import org.lealone.xsql.mysql.server.protocol.AuthPacket;
+import org.lealone.xsql.mysql.server.util.SecurityUtil;
+import org.lealone.xsql.mysql.server.util.Sha2PasswordCache;
+import org.lealone.xsql.mysql.sql.dml.SecureFilePriv;
+import org.lealone.xsql.mysql.sql.expression.MySQLFunction;
 
 public class MySQLServer extends AsyncServer<MySQLServerConnection> {
 
+    private static final Logger logger = LoggerFactory.getLogger(MySQLServer.class);
+
     public static final String DATABASE_NAME = "mysql";
     public static final int DEFAULT_PORT = 9310;
 
+    // 使用压缩协议时，小于这个长度的数据不压缩
+    private int compressThreshold = 50;
+    // LOAD DATA相关的参数
+    private boolean localInfile = true;
+    private int loadDataBatchSize = 1000;
+    private int loadDataCommitRows = 100000;
+    // 认证相关的参数
+    private String defaultAuthenticationPlugin = AuthPacket.MYSQL_NATIVE_PASSWORD;
+    private Sha2PasswordCache sha2PasswordCache;
+    private KeyPair rsaKeyPair;
+    private byte[] rsaPublicKeyPem;
+    // 已经注册了MySQL函数的数据库，key是数据库id
+    private final ConcurrentHashMap<Integer, Boolean> functionsRegistered = new ConcurrentHashMap<>();
+    private final ConnectLatency connectLatency = new ConnectLatency();
+    private SessionPool sessionPool;
+    private long startTime;
+    // 默认的max_execution_time，单位是毫秒，0表示不限制
+    private long maxExecutionTime;
+    // 一个请求合并后的最大字节数，跟MySQL 8的默认值一样是64M
+    private int maxAllowedPacket = 64 * 1024 * 1024;
+    // 为true时按MariaDB服务器的方式握手，MariaDB的客户端才能使用COM_STMT_BULK_EXECUTE这样的扩展
+    private boolean mariaDbCapabilities;
+    private ScheduledThreadPoolExecutor executionTimer;
+    // 握手包中的thread id就是连接id，KILL语句通过它找到要结束的连接
+    private final AtomicInteger nextConnectionId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, MySQLServerConnection> connectionsById = new ConcurrentHashMap<>();
+
     @Override
     public String getType() {
         return MySQLServerEngine.NAME;
@@ -37,11 +86,196 @@ public class MySQLServer extends AsyncServer<MySQLServerConnection> {
     @Override
     public void init(Map<String, String> config) {
         super.init(config);
+        if (config.containsKey("compress_threshold"))
+            compressThreshold = Integer.parseInt(config.get("compress_threshold"));
+        if (config.containsKey("local_infile"))
+            localInfile = Boolean.parseBoolean(config.get("local_infile"));
+        if (config.containsKey("secure_file_priv"))
+            SecureFilePriv.setDirectory(config.get("secure_file_priv"));
+        if (config.containsKey("load_data_batch_size"))
+            loadDataBatchSize = Integer.parseInt(config.get("load_data_batch_size"));
+        if (config.containsKey("load_data_commit_rows"))
+            loadDataCommitRows = Integer.parseInt(config.get("load_data_commit_rows"));
+        if (config.containsKey("default_authentication_plugin")) {
+            defaultAuthenticationPlugin = config.get("default_authentication_plugin");
+            if (!defaultAuthenticationPlugin.equals(AuthPacket.MYSQL_NATIVE_PASSWORD)
+                    && !defaultAuthenticationPlugin.equals(AuthPacket.CACHING_SHA2_PASSWORD))
+                throw DbException.getInvalidValueException("default_authentication_plugin",
+                        defaultAuthenticationPlugin);
+        }
+        int cacheSize = 1000;
+        if (config.containsKey("caching_sha2_password_cache_size"))
+            cacheSize = Integer.parseInt(config.get("caching_sha2_password_cache_size"));
+        sha2PasswordCache = new Sha2PasswordCache(cacheSize);
 
+        int sessionPoolSize = 0;
+        if (config.containsKey("session_pool_size"))
+            sessionPoolSize = Integer.parseInt(config.get("session_pool_size"));
+        long sessionPoolMaxIdleTime = 300;
+        if (config.containsKey("session_pool_max_idle_time"))
+            sessionPoolMaxIdleTime = Long.parseLong(config.get("session_pool_max_idle_time"));
+        sessionPool = new SessionPool(sessionPoolSize, sessionPoolMaxIdleTime * 1000);
+        if (config.containsKey("max_execution_time"))
+            maxExecutionTime = Long.parseLong(config.get("max_execution_time"));
+        if (config.containsKey("max_allowed_packet"))
+            maxAllowedPacket = Integer.parseInt(config.get("max_allowed_packet"));
+        if (config.containsKey("mariadb_capabilities"))
+            mariaDbCapabilities = Boolean.parseBoolean(config.get("mariadb_capabilities"));
+
+        startTime = System.currentTimeMillis();
         // 创建默认的 mysql 数据库
         String sql = "CREATE DATABASE IF NOT EXISTS " + DATABASE_NAME //
                 + " PARAMETERS(DEFAULT_SQL_ENGINE='" + MySQLServerEngine.NAME + "')";
         LealoneDatabase.getInstance().getSystemSession().prepareStatementLocal(sql).executeUpdate();
+
+        if (config.containsKey("session_pool_warmup"))
+            warmUpSessionPool(config.get("session_pool_warmup"));
+    }
+
+    int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    // 是否允许LOAD DATA LOCAL INFILE
+    boolean isLocalInfile() {
+        return localInfile;
+    }
+
+    // LOAD DATA和很大的多行INSERT每次插入的记录数
+    int getLoadDataBatchSize() {
+        return loadDataBatchSize;
+    }
+
+    // 自动提交模式下LOAD DATA每插入这么多条记录就提交一次，0表示只在最后提交
+    int getLoadDataCommitRows() {
+        return loadDataCommitRows;
+    }
+
+    // 握手包中的认证插件，客户端使用其他插件时会让它切换到这个插件
+    String getDefaultAuthenticationPlugin() {
+        return defaultAuthenticationPlugin;
+    }
+
+    Sha2PasswordCache getSha2PasswordCache() {
+        return sha2PasswordCache;
+    }
+
+    // caching_sha2_password在没有缓存时要通过RSA加密传输密码，第一次用到时才生成密钥
+    synchronized KeyPair getRsaKeyPair() {
+        if (rsaKeyPair == null) {
+            rsaKeyPair = SecurityUtil.generateRsaKeyPair(2048);
+            rsaPublicKeyPem = SecurityUtil.toPem(rsaKeyPair.getPublic());
+        }
+        return rsaKeyPair;
+    }
+
+    synchronized byte[] getRsaPublicKeyPem() {
+        getRsaKeyPair();
+        return rsaPublicKeyPem;
+    }
+
+    // 预先为每个user@database创建session_pool_size个会话，多个用逗号分隔。
+    // 配置中不保存密码，会话直接用数据库中已有的用户创建，客户端从池中取会话时再按用户库中的密码哈希验证
+    private void warmUpSessionPool(String users) {
+        for (String entry : users.split(",")) {
+            entry = entry.trim();
+            int at = entry.lastIndexOf('@');
+            if (at <= 0 || at == entry.length() - 1 || entry.indexOf(':') >= 0) {
+                logger.error("Invalid session_pool_warmup entry (expected user@database): " + entry);
+                continue;
+            }
+            String userName = entry.substring(0, at);
+            String dbName = entry.substring(at + 1);
+            try {
+                Database db = LealoneDatabase.getInstance().getDatabase(dbName);
+                if (db == null) {
+                    logger.error("Failed to warm up session pool, database not found: " + dbName);
+                    continue;
+                }
+                if (!db.isInitialized())
+                    db.init();
+                User user = db.findUser(db.getSystemSession(), userName);
+                if (user == null) {
+                    logger.error("Failed to warm up session pool, user not found: " + entry);
+                    continue;
+                }
+                registerFunctions(db);
+                for (int i = 0; i < sessionPool.getMaxSize(); i++) {
+                    sessionPool.release(dbName, userName, db.createSession(user), true);
+                }
+            } catch (Throwable e) {
+                logger.error("Failed to warm up session pool for " + entry, e);
+            }
+        }
+    }
+
+    SessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    long getMaxExecutionTime() {
+        return maxExecutionTime;
+    }
+
+    int getMaxAllowedPacket() {
+        return maxAllowedPacket;
+    }
+
+    boolean isMariaDbCapabilities() {
+        return mariaDbCapabilities;
+    }
+
+    // 第一次有语句需要限制执行时间时才创建定时器线程，超时后的任务只是设置取消标记
+    synchronized ScheduledFuture<?> scheduleTimeout(Runnable task, long delayMillis) {
+        if (executionTimer == null) {
+            executionTimer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "MySQLServer max_execution_time");
+                t.setDaemon(true);
+                return t;
+            });
+            executionTimer.setRemoveOnCancelPolicy(true);
+        }
+        return executionTimer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    MySQLServerConnection getConnection(int connectionId) {
+        return connectionsById.get(connectionId);
+    }
+
+    void unregisterConnection(int connectionId, MySQLServerConnection conn) {
+        connectionsById.remove(connectionId, conn);
+    }
+
+    // 每个数据库只在第一次有连接时注册一次，用系统会话执行，不需要用户有管理员权限
+    void registerFunctions(Database db) {
+        functionsRegistered.computeIfAbsent(db.getId(), id -> {
+            MySQLFunction.registerFunctions(db.getSystemSession());
+            return Boolean.TRUE;
+        });
+    }
+
+    ConnectionInfo createConnectionInfo(String dbName, String user, byte[] password, byte[] salt) {
+        String url = Constants.URL_PREFIX + Constants.URL_EMBED + dbName;
+        Properties info = new Properties();
+        info.put("MODE", "MySQL");
+        info.put("USER", user);
+        info.put("PASSWORD", StringUtils.convertBytesToHex(password));
+        info.put("PASSWORD_HASH", "true");
+        ConnectionInfo ci = new ConnectionInfo(url, info);
+        ci.setSalt(salt);
+        return ci;
+    }
+
+    ConnectLatency getConnectLatency() {
+        return connectLatency;
+    }
+
+    int getThreads() {
+        return getConnectionSize();
+    }
+
+    long getUptime() {
+        return (System.currentTimeMillis() - startTime) / 1000;
     }
 
     @Override
@@ -57,8 +291,21 @@ public class MySQLServer extends AsyncServer<MySQLServerConnection> {
 
     @Override
     protected void afterRegister(MySQLServerConnection conn, Scheduler scheduler) {
-        int threadId = scheduler.getHandlerId();
+        // 调度器的handlerId会被多个连接共用，所以每个连接另外分配一个id，用完了再从1开始
+        int connectionId = nextConnectionId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+        connectionsById.put(connectionId, conn);
         // 连接创建成功后先握手
-        conn.handshake(threadId);
+        conn.handshake(connectionId);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        synchronized (this) {
+            if (executionTimer != null) {
+                executionTimer.shutdownNow();
+                executionTimer = null;
+            }
+        }
     }
 }
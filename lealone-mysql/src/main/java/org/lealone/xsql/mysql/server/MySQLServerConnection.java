@@ -18,16 +18,26 @@
 package org.lealone.xsql.mysql.server;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.Properties;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
-import org.lealone.common.util.StringUtils;
 import org.lealone.db.ConnectionInfo;
-import org.lealone.db.Constants;
+import org.lealone.db.auth.User;
 import org.lealone.db.result.Result;
 import org.lealone.db.session.ServerSession;
 import org.lealone.db.value.Value;
@@ -38,44 +48,133 @@ import org.lealone.net.NetBufferOutputStream;
 import org.lealone.net.WritableChannel;
 import org.lealone.server.Scheduler;
 import org.lealone.sql.PreparedSQLStatement;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.StatementBase;
+import org.lealone.sql.StatementList;
+import org.lealone.sql.query.Query;
 import org.lealone.xsql.mysql.server.handler.AuthPacketHandler;
 import org.lealone.xsql.mysql.server.handler.CommandPacketHandler;
 import org.lealone.xsql.mysql.server.handler.PacketHandler;
+import org.lealone.xsql.mysql.server.protocol.AuthMoreDataPacket;
 import org.lealone.xsql.mysql.server.protocol.AuthPacket;
+import org.lealone.xsql.mysql.server.protocol.AuthSwitchRequestPacket;
+import org.lealone.xsql.mysql.server.protocol.BoundParameters;
+import org.lealone.xsql.mysql.server.protocol.BulkExecutePacket;
+import org.lealone.xsql.mysql.server.protocol.ChangeUserPacket;
 import org.lealone.xsql.mysql.server.protocol.EOFPacket;
+import org.lealone.xsql.mysql.server.protocol.ErrorCode;
 import org.lealone.xsql.mysql.server.protocol.ErrorPacket;
 import org.lealone.xsql.mysql.server.protocol.ExecutePacket;
+import org.lealone.xsql.mysql.server.protocol.FetchPacket;
 import org.lealone.xsql.mysql.server.protocol.FieldPacket;
 import org.lealone.xsql.mysql.server.protocol.Fields;
 import org.lealone.xsql.mysql.server.protocol.HandshakePacket;
+import org.lealone.xsql.mysql.server.protocol.LocalInfilePacket;
 import org.lealone.xsql.mysql.server.protocol.OkPacket;
 import org.lealone.xsql.mysql.server.protocol.PacketInput;
 import org.lealone.xsql.mysql.server.protocol.PacketOutput;
 import org.lealone.xsql.mysql.server.protocol.PreparedOkPacket;
 import org.lealone.xsql.mysql.server.protocol.ResultSetHeaderPacket;
-import org.lealone.xsql.mysql.server.protocol.RowDataPacket;
+import org.lealone.xsql.mysql.server.protocol.StatisticsPacket;
+import org.lealone.xsql.mysql.server.protocol.TextRowDataPacket;
+import org.lealone.xsql.mysql.server.util.Capabilities;
 import org.lealone.xsql.mysql.server.util.PacketUtil;
+import org.lealone.xsql.mysql.server.util.SecurityUtil;
+import org.lealone.xsql.mysql.server.util.ServerStatus;
+import org.lealone.xsql.mysql.sql.dml.MySQLBulkUpdate;
+import org.lealone.xsql.mysql.sql.dml.MySQLInsert;
+import org.lealone.xsql.mysql.sql.dml.MySQLKill;
+import org.lealone.xsql.mysql.sql.dml.MySQLLoadData;
+import org.lealone.xsql.mysql.sql.dml.MySQLStreamingInsert;
+import org.lealone.xsql.mysql.sql.expression.MySQLFunction;
+import org.lealone.xsql.mysql.sql.expression.MySQLVariable;
 
 public class MySQLServerConnection extends AsyncConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(MySQLServerConnection.class);
     private static final byte[] AUTH_OK = new byte[] { 7, 0, 0, 2, 0, 0, 0, 2, 0, 0, 0 };
     private static final byte[] EMPTY = new byte[0];
+    // caching_sha2_password的交互数据
+    private static final byte[] FAST_AUTH_SUCCESS = { 3 };
+    private static final byte[] PERFORM_FULL_AUTHENTICATION = { 4 };
+    private static final byte REQUEST_PUBLIC_KEY = 2;
+    private static final int AUTH_SWITCH = 1; // 等待客户端切换认证插件后的认证数据
+    private static final int AUTH_FULL = 2; // 等待客户端请求公钥或者发送加密的密码
+    // 每个连接最多保留多少个其他数据库的会话
+    private static final int MAX_IDLE_SESSIONS = 8;
+    // SELECT /*+ MAX_EXECUTION_TIME(n) */ ...
+    private static final Pattern MAX_EXECUTION_TIME_HINT = Pattern.compile(
+            "^\\s*SELECT\\s*/\\*\\+[^*]*?\\bMAX_EXECUTION_TIME\\s*\\(\\s*(\\d+)\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
 
     private final MySQLServer server;
     private final Scheduler scheduler;
+    private final PacketOutput packetOutput;
+    // 文本协议的行数据包，同一个连接的所有结果集共用，避免为每条记录分配临时对象
+    private final TextRowDataPacket textRow = new TextRowDataPacket();
     private ServerSession session;
+    private String databaseName;
+    // 会话的状态没有被改变过，连接关闭时可以放回会话池
+    private boolean sessionReusable = true;
+    // 这个连接用过的其他数据库的会话，key是数据库名，切换回这些数据库时不需要再创建会话
+    private final HashMap<String, IdleSession> idleSessions = new HashMap<>();
 
     private PacketHandler packetHandler;
     private AuthPacket authPacket;
     private int nextStatementId;
+    // 通过COM_STMT_EXECUTE打开的只读游标，key是statementId
+    // 游标的记录在打开时就编码好放到RowSpool中，不持有Result，所以每个游标占用的内存是固定的
+    private final HashMap<Integer, RowSpool> cursors = new HashMap<>();
+    // 正在执行的游标查询的记录，执行完之前连接被关闭时要删除临时文件
+    private RowSpool openingCursor;
+    // 预先编码好的字段定义包，key是statementId，重复执行时不需要再生成
+    private final HashMap<Integer, FieldDefinitions> fieldDefinitionsCache = new HashMap<>();
+    // 预处理语句最近一次绑定的参数类型和通过COM_STMT_SEND_LONG_DATA发送的参数值，key是statementId
+    private final HashMap<Integer, BoundParameters> boundParameters = new HashMap<>();
+    private long clientFlags;
+    // 客户端读得太慢时暂停写结果集，等通道中的数据写出去后再继续，暂停期间收到的包先放到队列中
+    private Result pausedResult;
+    private Runnable pausedTask;
+    private final ArrayDeque<PacketInput> pendingPackets = new ArrayDeque<>();
+    // COM_QUERY中当前语句之后的语句，当前语句的结果写完后转到remainingStatements等待执行
+    private String nextStatements;
+    private String remainingStatements;
+    private int remainingPacketIdOffset;
+    // 正在执行的LOAD DATA LOCAL INFILE，这期间客户端发送过来的包都是文件的内容
+    private MySQLLoadData localInfile;
+    private String localInfileSql;
+    private int localInfileStatus;
+    private Throwable localInfileError;
+    private boolean loadDataAutoCommit;
+    // 正在异步执行语句
+    private boolean executing;
+    private int executingPacketIdOffset;
+    private Thread handlerThread;
+    private boolean closed;
+    // 被KILL CONNECTION结束的连接，由其他连接的线程设置
+    private volatile boolean killed;
+    // 正在执行的语句，其他连接的KILL QUERY和max_execution_time的定时器通过它取消语句
+    private volatile PreparedSQLStatement runningStatement;
+    private ScheduledFuture<?> timeoutFuture;
+    // 语句被取消的原因，ER_QUERY_INTERRUPTED或ER_QUERY_TIMEOUT，0表示没有被取消
+    private volatile int interruptErrno;
 
+    private int connectionId;
     private byte[] seed;
+    private long handshakeTime;
+    // 认证过程中等待客户端发送的数据
+    private int authState;
+    // mysql_native_password格式的认证数据，切换数据库时用它重新创建会话
+    private byte[] password;
+    // 正在处理COM_CHANGE_USER
+    private boolean changingUser;
 
     protected MySQLServerConnection(MySQLServer server, WritableChannel channel, Scheduler scheduler) {
         super(channel, true);
         this.server = server;
         this.scheduler = scheduler;
+        // 每个连接只用一个PacketOutput，同一个响应中的多个包会合并后再写到通道
+        packetOutput = new PacketOutput(writableChannel, scheduler.getDataBufferFactory());
     }
 
     public ServerSession getSession() {
@@ -86,13 +185,23 @@ public class MySQLServerConnection extends AsyncConnection {
         return seed;
     }
 
+    public long getClientFlags() {
+        return clientFlags;
+    }
+
     // 客户端连上来后，数据库先发回一个握手包
     void handshake(int threadId) {
+        connectionId = threadId;
+        handshakeTime = System.nanoTime();
         // 创建一个AuthPacketHandler用来鉴别是否是合法的用户
         packetHandler = new AuthPacketHandler(this);
         PacketOutput out = getPacketOutput();
-        HandshakePacket p = HandshakePacket.create(threadId);
-        scheduler.handle(() -> p.write(out)); // 交给调度器去写，可能通道还没有注册好
+        HandshakePacket p = HandshakePacket.create(threadId, server.getDefaultAuthenticationPlugin(),
+                server.isMariaDbCapabilities());
+        scheduler.handle(() -> { // 交给调度器去写，可能通道还没有注册好
+            p.write(out);
+            out.flush();
+        });
 
         // 保存认证数据，不能用restOfScrambleBuff
         seed = new byte[p.seed.length + p.authPluginDataPart2.length];
@@ -101,34 +210,184 @@ public class MySQLServerConnection extends AsyncConnection {
     }
 
     public void authenticate(AuthPacket authPacket) {
+        this.clientFlags = authPacket.clientFlags;
+        packetOutput.setPacketIdOffset(1); // 握手响应包的序号是1
+        startAuthentication(authPacket);
+    }
+
+    // COM_CHANGE_USER，先把连接恢复到初始状态，然后跟建立连接时一样认证新的用户，
+    // 认证数据也是用握手包中的seed生成的
+    public void changeUser(ChangeUserPacket packet) {
+        resetStatements();
+        releaseSessions();
+        nextStatementId = 0;
+        changingUser = true;
+        packetHandler = new AuthPacketHandler(this, true);
+        startAuthentication(packet.toAuthPacket(clientFlags));
+    }
+
+    private void startAuthentication(AuthPacket authPacket) {
         this.authPacket = authPacket;
+        String plugin = authPacket.authPluginName;
+        String defaultPlugin = server.getDefaultAuthenticationPlugin();
+        if (plugin == null) {
+            login(getPassword(authPacket), null);
+        } else if (!plugin.equals(defaultPlugin)) {
+            // 客户端用的是别的插件，让它用握手包中的插件重新发送认证数据
+            authState = AUTH_SWITCH;
+            AuthSwitchRequestPacket packet = new AuthSwitchRequestPacket();
+            packet.packetId = 1;
+            packet.pluginName = defaultPlugin.getBytes();
+            packet.authPluginData = seed;
+            packet.write(getPacketOutput());
+        } else {
+            authenticate(plugin, getPassword(authPacket));
+        }
+    }
+
+    // 认证插件需要多次交互时，客户端在握手响应包之后发送的包
+    public void continueAuthentication(PacketInput in) {
+        packetOutput.setPacketIdOffset(in.read(3) & 0xff);
+        in.position(4);
+        byte[] data = in.readBytes();
+        int state = authState;
+        authState = 0;
+        switch (state) {
+        case AUTH_SWITCH:
+            authenticate(server.getDefaultAuthenticationPlugin(), data);
+            break;
+        case AUTH_FULL:
+            authenticateFully(data);
+            break;
+        default:
+            accessDenied();
+        }
+    }
+
+    private void authenticate(String plugin, byte[] data) {
+        if (!plugin.equals(AuthPacket.CACHING_SHA2_PASSWORD) || data.length == 0) {
+            login(data, null); // mysql_native_password或者空密码
+            return;
+        }
+        // 缓存中有这个用户时，不需要客户端再发送密码
+        byte[] sha1Pass = server.getSha2PasswordCache().fastAuth(authPacket.user, data, seed);
+        if (sha1Pass != null) {
+            writeAuthMoreData(FAST_AUTH_SUCCESS);
+            if (!login(SecurityUtil.scramble411Sha1Pass(sha1Pass, seed), null)) {
+                // 缓存之后密码被修改了
+                server.getSha2PasswordCache().remove(authPacket.user);
+            }
+        } else {
+            authState = AUTH_FULL;
+            writeAuthMoreData(PERFORM_FULL_AUTHENTICATION);
+        }
+    }
+
+    // caching_sha2_password的完整认证，没有使用SSL，所以客户端用RSA公钥加密密码
+    private void authenticateFully(byte[] data) {
+        if (data.length == 1 && data[0] == REQUEST_PUBLIC_KEY) {
+            authState = AUTH_FULL;
+            writeAuthMoreData(server.getRsaPublicKeyPem());
+            return;
+        }
+        byte[] pass;
         try {
-            session = createSession(authPacket, MySQLServer.DATABASE_NAME);
-            String sql = "CREATE ALIAS IF NOT EXISTS CONNECTION_ID DETERMINISTIC FOR "
-                    + "\"org.lealone.xsql.mysql.sql.expression.MySQLFunction.getConnectionId\"";
-            session.prepareStatement(sql).executeUpdate();
+            pass = SecurityUtil.decryptRsa(server.getRsaKeyPair().getPrivate(), data);
+        } catch (GeneralSecurityException e) {
+            accessDenied();
+            return;
+        }
+        // 解密后是以0结尾的密码跟seed循环异或的结果
+        for (int i = 0; i < pass.length; i++) {
+            pass[i] ^= seed[i % seed.length];
+        }
+        int len = pass.length;
+        if (len > 0 && pass[len - 1] == 0)
+            len--;
+        pass = Arrays.copyOf(pass, len);
+        login(len == 0 ? EMPTY : SecurityUtil.scramble411(pass, seed), pass);
+    }
+
+    private void writeAuthMoreData(byte[] data) {
+        AuthMoreDataPacket packet = new AuthMoreDataPacket(data);
+        packet.packetId = 1;
+        packet.write(getPacketOutput());
+        // 后面的OK包或错误包的序号接着这个包
+        packetOutput.setPacketIdOffset(packetOutput.getPacketIdOffset() + 1);
+    }
+
+    // password是mysql_native_password格式的认证数据，plainPassword不为null时是通过完整认证得到的明文密码
+    private boolean login(byte[] password, byte[] plainPassword) {
+        this.password = password;
+        // COM_CHANGE_USER可以同时指定新的数据库
+        String dbName = MySQLServer.DATABASE_NAME;
+        if (changingUser && authPacket.database != null && !authPacket.database.isEmpty())
+            dbName = authPacket.database;
+        try {
+            session = createSession(dbName);
+            databaseName = dbName;
         } catch (Throwable e) {
             logger.error("Failed to create session", e);
             sendErrorMessage(e);
-            close();
-            server.removeConnection(this);
-            return;
+            closeAfterLoginFailed();
+            return false;
         }
+        if (plainPassword != null)
+            server.getSha2PasswordCache().put(authPacket.user, plainPassword);
         // 鉴别成功后创建CommandPacketHandler用来处理各种命令(包括SQL)
         packetHandler = new CommandPacketHandler(this);
-        sendMessage(AUTH_OK);
+        if (changingUser) {
+            // 这时可能已经在使用压缩协议，所以通过packetOutput发送
+            changingUser = false;
+            writeOkPacket();
+            return true;
+        }
+        packetOutput.flush();
+        byte[] ok = AUTH_OK.clone();
+        ok[3] = packetOutput.getPacketId((byte) 1);
+        sendMessage(ok);
+        // 认证成功的包发送之后，双方才开始使用压缩协议
+        if ((clientFlags & Capabilities.CLIENT_COMPRESS) != 0)
+            enableCompression();
+        server.getConnectLatency().record(System.nanoTime() - handshakeTime);
+        return true;
+    }
+
+    private void accessDenied() {
+        sendErrorMessage(ErrorCode.ER_ACCESS_DENIED_ERROR, "Access denied for user '" + authPacket.user + "'");
+        closeAfterLoginFailed();
+    }
+
+    private void closeAfterLoginFailed() {
+        packetOutput.flush();
+        close();
+        server.removeConnection(this);
+    }
+
+    private void enableCompression() {
+        packetOutput.enableCompression(server.getCompressThreshold());
+        inflater = new Inflater();
+        packetLengthByteBuffer = ByteBuffer.allocateDirect(7);
     }
 
-    private ServerSession createSession(AuthPacket authPacket, String dbName) {
-        Properties info = new Properties();
-        info.put("MODE", "MySQL");
-        info.put("USER", authPacket.user);
-        info.put("PASSWORD", StringUtils.convertBytesToHex(getPassword(authPacket)));
-        info.put("PASSWORD_HASH", "true");
-        String url = Constants.URL_PREFIX + Constants.URL_EMBED + dbName;
-        ConnectionInfo ci = new ConnectionInfo(url, info);
-        ci.setSalt(seed);
-        return (ServerSession) ci.createSession();
+    private ServerSession createSession(String dbName) {
+        SessionPool pool = server.getSessionPool();
+        ServerSession s = pool.poll(dbName, authPacket.user);
+        if (s != null) {
+            // 池中的会话也要验证密码，用户已经被删除时关闭这个会话
+            User user = s.getUser();
+            boolean exists = s.getDatabase().findUser(s, user.getName()) == user;
+            if (exists && user.validateUserPasswordHash(password, seed)) {
+                MySQLFunction.setConnectionId(s, connectionId);
+                return s;
+            }
+            pool.release(dbName, authPacket.user, s, exists);
+        }
+        ConnectionInfo ci = server.createConnectionInfo(dbName, authPacket.user, password, seed);
+        s = (ServerSession) ci.createSession();
+        server.registerFunctions(s.getDatabase());
+        MySQLFunction.setConnectionId(s, connectionId);
+        return s;
     }
 
     private static byte[] getPassword(AuthPacket authPacket) {
@@ -137,11 +396,137 @@ public class MySQLServerConnection extends AsyncConnection {
         return authPacket.password;
     }
 
+    // COM_INIT_DB，原来的会话留在这个连接中，切换回原来的数据库时直接使用，不需要重新认证和创建会话
     public void initDatabase(String dbName) {
-        session = createSession(authPacket, dbName);
+        if (dbName.equals(databaseName))
+            return;
+        IdleSession idle = idleSessions.remove(dbName);
+        ServerSession newSession = idle != null ? idle.session : createSession(dbName);
+        if (idleSessions.size() < MAX_IDLE_SESSIONS)
+            idleSessions.put(databaseName, new IdleSession(databaseName, session, sessionReusable));
+        else
+            releaseSession(databaseName, session, sessionReusable);
+        session = newSession;
+        sessionReusable = idle == null || idle.reusable;
+        databaseName = dbName;
+    }
+
+    // COM_RESET_CONNECTION，在原来的会话上回滚事务，删除预处理语句和变量，不需要重新认证
+    public void resetConnection() {
+        resetStatements();
+        for (IdleSession idle : idleSessions.values()) {
+            releaseSession(idle.databaseName, idle.session, idle.reusable);
+        }
+        idleSessions.clear();
+        if (sessionReusable) {
+            session.rollback();
+            session.setAutoCommit(true);
+            for (String name : session.getVariableNames()) {
+                session.setVariable(name, ValueNull.INSTANCE);
+            }
+        } else {
+            // 执行过SET或DDL之类的语句后无法知道要恢复哪些状态，直接换一个新的会话
+            ServerSession newSession = createSession(databaseName);
+            releaseSession(databaseName, session, false);
+            session = newSession;
+            sessionReusable = true;
+        }
+        nextStatementId = 0;
+        writeOkPacket();
+    }
+
+    // 关闭这个连接打开的游标、绑定的参数和预处理语句
+    private void resetStatements() {
+        closeCursors();
+        fieldDefinitionsCache.clear();
+        for (BoundParameters bound : boundParameters.values()) {
+            bound.clearLongData();
+        }
+        boundParameters.clear();
+        removeStatements(session);
+        for (IdleSession idle : idleSessions.values()) {
+            removeStatements(idle.session);
+        }
+    }
+
+    // 这个连接预处理过的语句要从会话中删除
+    private void removeStatements(ServerSession s) {
+        for (int id = 1; id <= nextStatementId; id++) {
+            PreparedSQLStatement command = (PreparedSQLStatement) s.removeCache(id, true);
+            if (command != null) {
+                command.close();
+            }
+        }
+    }
+
+    // 关闭连接或切换用户时把这个连接的所有会话放回池中
+    private void releaseSessions() {
+        if (session != null) {
+            releaseSession(databaseName, session, sessionReusable);
+            session = null;
+            sessionReusable = true;
+        }
+        releaseIdleSessions();
+    }
+
+    private void releaseIdleSessions() {
+        for (IdleSession idle : idleSessions.values()) {
+            releaseSession(idle.databaseName, idle.session, idle.reusable);
+        }
+        idleSessions.clear();
+    }
+
+    private void releaseSession(String dbName, ServerSession s, boolean reusable) {
+        MySQLFunction.removeConnectionId(s);
+        removeStatements(s);
+        server.getSessionPool().release(dbName, authPacket.user, s, reusable);
+    }
+
+    // 只执行过这些语句的会话在回滚之后跟新创建的会话一样，可以再给其他连接使用
+    private void checkSessionReusable(PreparedSQLStatement ps) {
+        if (!sessionReusable)
+            return;
+        switch (ps.getType()) {
+        case SQLStatement.SELECT:
+        case SQLStatement.INSERT:
+        case SQLStatement.UPDATE:
+        case SQLStatement.DELETE:
+        case SQLStatement.CALL:
+        case SQLStatement.BEGIN:
+        case SQLStatement.COMMIT:
+        case SQLStatement.ROLLBACK:
+        case SQLStatement.SAVEPOINT:
+        case SQLStatement.ROLLBACK_TO_SAVEPOINT:
+        case SQLStatement.SET_AUTOCOMMIT_TRUE:
+        case SQLStatement.SET_AUTOCOMMIT_FALSE:
+        case SQLStatement.NO_OPERATION: // 包括KILL和被忽略的SET语句
+            break;
+        default:
+            sessionReusable = false;
+        }
+    }
+
+    // COM_STATISTICS，跟MySQL一样返回一行可读的状态信息，另外加上建立连接的耗时
+    public void writeStatistics() {
+        ConnectLatency latency = server.getConnectLatency();
+        String msg = "Uptime: " + server.getUptime() //
+                + "  Threads: " + server.getThreads() //
+                + "  Connections: " + latency.getCount() //
+                + "  Connect latency avg/p99/max (us): " + latency.getAverageMicros() + "/"
+                + latency.getPercentileMicros(99) + "/" + latency.getMaxMicros();
+        StatisticsPacket packet = new StatisticsPacket();
+        packet.packetId = 1;
+        packet.message = msg.getBytes(StandardCharsets.UTF_8);
+        packet.write(getPacketOutput());
     }
 
     public void closeStatement(int statementId) {
+        closeCursor(statementId);
+        fieldDefinitionsCache.remove(statementId);
+        BoundParameters bound = boundParameters.remove(statementId);
+        if (bound != null) {
+            bound.clearLongData();
+        }
         PreparedSQLStatement command = (PreparedSQLStatement) session.removeCache(statementId, true);
         if (command != null) {
             command.close();
@@ -154,108 +539,757 @@ public class MySQLServerConnection extends AsyncConnection {
         command.setId(statementId);
         session.addCache(statementId, command);
 
+        Result meta = command.getMetaData();
         PacketOutput out = getPacketOutput();
         PreparedOkPacket packet = new PreparedOkPacket();
         packet.packetId = 1;
         packet.statementId = statementId;
-        packet.columnsNumber = command.getMetaData().getVisibleColumnCount();
+        packet.columnsNumber = meta == null ? 0 : meta.getVisibleColumnCount();
         packet.parametersNumber = command.getParameters().size();
+        if (isResultSetMetadataOptional()) {
+            boolean metadataFollows = !isResultSetMetadataNone();
+            packet.metadataFollows = metadataFollows ? ResultSetHeaderPacket.RESULTSET_METADATA_FULL
+                    : ResultSetHeaderPacket.RESULTSET_METADATA_NONE;
+            if (!metadataFollows) {
+                packet.write(out);
+                return;
+            }
+        }
         packet.write(out);
+
+        // 客户端要根据参数和列的定义来解析二进制协议的结果集
+        byte packetId = packet.packetId;
+        if (packet.parametersNumber > 0) {
+            for (int i = 0; i < packet.parametersNumber; i++) {
+                FieldPacket field = PacketUtil.getField("?", Fields.FIELD_TYPE_VAR_STRING);
+                field.packetId = ++packetId;
+                field.write(out);
+            }
+            writeFieldsEof(out, ++packetId);
+        }
+        if (packet.columnsNumber > 0) {
+            for (int i = 0; i < packet.columnsNumber; i++) {
+                FieldPacket field = PacketUtil.getField(meta.getColumnName(i).toLowerCase(),
+                        Fields.toMySQLType(meta.getColumnType(i)));
+                field.packetId = ++packetId;
+                field.write(out);
+            }
+            writeFieldsEof(out, ++packetId);
+        }
+    }
+
+    // 字段定义后面的EOF包，协商了CLIENT_DEPRECATE_EOF时不需要
+    private void writeFieldsEof(PacketOutput out, byte packetId) {
+        if (!isEofDeprecated()) {
+            EOFPacket eof = new EOFPacket();
+            eof.packetId = packetId;
+            eof.write(out);
+        }
     }
 
     public void executeStatement(ExecutePacket packet) {
-        PreparedSQLStatement ps = (PreparedSQLStatement) session.getCache((int) packet.statementId);
+        int statementId = (int) packet.statementId;
+        PreparedSQLStatement ps = (PreparedSQLStatement) session.getCache(statementId);
         String sql = ps.getSQL();
-        executeStatement(ps, sql);
+        // 重新执行时原先的游标就失效了
+        closeCursor(statementId);
+        // 跟MySQL一样只为SELECT打开游标，其他返回结果集的语句直接返回所有记录
+        boolean openCursor = (packet.flags & ExecutePacket.CURSOR_TYPE_READ_ONLY) != 0
+                && ps instanceof Query;
+        executeStatement(ps, sql, statementId, openCursor);
     }
 
     public void executeStatement(String sql) {
-        executeStatement(null, sql);
+        PreparedSQLStatement ps;
+        try {
+            ps = (PreparedSQLStatement) session.prepareSQLCommand(sql, -1);
+        } catch (Throwable e) {
+            sendExecuteError(sql, e);
+            return;
+        }
+        // 客户端允许一次发送多条语句时，按顺序执行每条语句并分别返回结果，
+        // 剩下的语句等当前语句的结果写完后再解析执行
+        if (ps instanceof StatementList && isMultiStatementsEnabled()) {
+            StatementList list = (StatementList) ps;
+            nextStatements = list.getRemaining();
+            ps = list.getFirstStatement();
+        }
+        executeStatement(ps, sql, -1, false);
+    }
+
+    private boolean isMultiStatementsEnabled() {
+        return (clientFlags & Capabilities.CLIENT_MULTI_STATEMENTS) != 0;
+    }
+
+    // 当前语句的结果写完后调用，还有剩下的语句时接着执行
+    private void endResult() {
+        if (nextStatements != null) {
+            remainingStatements = nextStatements;
+            nextStatements = null;
+            // 多个结果集的包的序号是连续的
+            remainingPacketIdOffset = packetOutput.getLastPacketId() & 0xff;
+        }
+    }
+
+    public void setOption(int option) {
+        // 0: MYSQL_OPTION_MULTI_STATEMENTS_ON, 1: MYSQL_OPTION_MULTI_STATEMENTS_OFF
+        if (option == 0) {
+            clientFlags |= Capabilities.CLIENT_MULTI_STATEMENTS;
+        } else if (option == 1) {
+            clientFlags &= ~Capabilities.CLIENT_MULTI_STATEMENTS;
+        } else {
+            sendErrorMessage(ErrorCode.ER_UNKNOWN_COM_ERROR, "Unknown option: " + option);
+            return;
+        }
+        int status = ServerStatus.SERVER_STATUS_AUTOCOMMIT;
+        if (isEofDeprecated()) {
+            OkPacket ok = new OkPacket();
+            ok.fieldCount = OkPacket.EOF_HEADER;
+            ok.packetId = 1;
+            ok.serverStatus = status;
+            ok.write(getPacketOutput());
+        } else {
+            EOFPacket eof = new EOFPacket();
+            eof.packetId = 1;
+            eof.status = status;
+            eof.write(getPacketOutput());
+        }
     }
 
-    private void executeStatement(PreparedSQLStatement ps, String sql) {
+    // statementId大于0时是COM_STMT_EXECUTE，使用二进制协议返回结果集，否则是COM_QUERY，使用文本协议，
+    // openCursor为true时只返回结果集的元数据，记录由后续的COM_STMT_FETCH获取
+    private void executeStatement(PreparedSQLStatement ps, String sql, int statementId,
+            boolean openCursor) {
         logger.info("execute sql: " + sql);
+        checkSessionReusable(ps);
+        // 后面还有语句时，当前结果的最后一个包要带上SERVER_MORE_RESULTS_EXISTS
+        int status = nextStatements == null ? ServerStatus.SERVER_STATUS_AUTOCOMMIT
+                : ServerStatus.SERVER_STATUS_AUTOCOMMIT | ServerStatus.SERVER_MORE_RESULTS_EXISTS;
+        if (ps instanceof MySQLLoadData) {
+            executeLoadData((MySQLLoadData) ps, sql, status);
+            return;
+        }
+        if (ps instanceof MySQLKill) {
+            MySQLKill kill = (MySQLKill) ps;
+            kill(kill.getConnectionId(), kill.isQuery(), status);
+            return;
+        }
+        if (ps instanceof MySQLStreamingInsert) {
+            ((MySQLStreamingInsert) ps).setBatchSize(server.getLoadDataBatchSize());
+        } else if (ps instanceof MySQLInsert) {
+            ((MySQLInsert) ps).setFoundRows((clientFlags & Capabilities.CLIENT_FOUND_ROWS) != 0);
+        }
+        beginStatement(ps);
         try {
-            if (ps == null)
-                ps = (PreparedSQLStatement) session.prepareSQLCommand(sql, -1);
-            if (ps.isQuery()) {
-                Result result = ps.executeQuery(-1).get();
-                writeQueryResult(result);
+            if (openCursor) {
+                openCursor((Query) ps, sql, statementId, status);
+            } else if (ps.isQuery()) {
+                // 不阻塞调度器线程，语句执行完后在回调中写结果
+                beginAsync();
+                ps.executeQuery(-1).onComplete(ar -> endAsync(() -> {
+                    endStatement();
+                    if (ar.isFailed()) {
+                        sendExecuteError(sql, ar.getCause());
+                        return;
+                    }
+                    writeQueryResult(ar.getResult(), statementId, status);
+                }));
             } else {
-                int updateCount = ps.executeUpdate().get();
-                writeUpdateResult(updateCount);
+                beginAsync();
+                ps.executeUpdate().onComplete(ar -> endAsync(() -> {
+                    endStatement();
+                    if (ar.isFailed()) {
+                        sendExecuteError(sql, ar.getCause());
+                    } else {
+                        writeUpdateResult(ar.getResult(), status);
+                        endResult();
+                    }
+                }));
             }
         } catch (Throwable e) {
-            logger.error("Failed to execute statement: " + sql, e);
+            executing = false;
+            endStatement();
+            sendExecuteError(sql, e);
+        }
+    }
+
+    private void sendExecuteError(String sql, Throwable e) {
+        // 出错时不再执行剩下的语句
+        nextStatements = null;
+        int errno = interruptErrno;
+        if (errno != 0) {
+            interruptErrno = 0;
+            if (e instanceof DbException && ((DbException) e)
+                    .getErrorCode() == org.lealone.db.api.ErrorCode.STATEMENT_WAS_CANCELED) {
+                logger.info("Statement interrupted: " + sql);
+                sendErrorMessage(errno, errno == ErrorCode.ER_QUERY_TIMEOUT
+                        ? "Query execution was interrupted, maximum statement execution time exceeded"
+                        : "Query execution was interrupted");
+                return;
+            }
+        }
+        logger.error("Failed to execute statement: " + sql, e);
+        sendErrorMessage(e);
+    }
+
+    // 语句开始执行前记下它，超过max_execution_time时由定时器取消它
+    private void beginStatement(PreparedSQLStatement ps) {
+        interruptErrno = 0;
+        runningStatement = ps;
+        long timeout = getMaxExecutionTime(ps);
+        if (timeout > 0) {
+            timeoutFuture = server.scheduleTimeout(() -> cancelStatement(ps, ErrorCode.ER_QUERY_TIMEOUT),
+                    timeout);
+        }
+    }
+
+    private void endStatement() {
+        runningStatement = null;
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+            timeoutFuture = null;
+        }
+    }
+
+    // 跟MySQL一样只限制SELECT语句，优先使用语句中的提示，然后是会话变量，最后是服务器的默认值
+    private long getMaxExecutionTime(PreparedSQLStatement ps) {
+        if (!ps.isQuery())
+            return 0;
+        String sql = ps.getSQL();
+        if (sql != null && sql.contains("/*+")) {
+            Matcher m = MAX_EXECUTION_TIME_HINT.matcher(sql);
+            if (m.find()) {
+                try {
+                    return Long.parseLong(m.group(1));
+                } catch (NumberFormatException e) {
+                    // 超出范围时忽略这个提示
+                }
+            }
+        }
+        Value v = session.getVariable(MySQLVariable.MAX_EXECUTION_TIME);
+        if (v != ValueNull.INSTANCE)
+            return v.getLong();
+        return server.getMaxExecutionTime();
+    }
+
+    // 由其他线程调用，只设置取消标记，语句执行时检查到标记后自己结束，所以不会打断正在写的结果
+    private void cancelStatement(PreparedSQLStatement ps, int errno) {
+        if (runningStatement == ps) {
+            interruptErrno = errno;
+            ps.cancel();
+        }
+    }
+
+    // 由执行KILL的连接所在的线程调用
+    void killQuery() {
+        PreparedSQLStatement ps = runningStatement;
+        if (ps != null)
+            cancelStatement(ps, ErrorCode.ER_QUERY_INTERRUPTED);
+    }
+
+    // 先取消正在执行的语句，语句结束后由completeAsync关闭连接，会话中未提交的事务在放回池中之前回滚。
+    // 没有语句在执行时回到这个连接自己的调度器线程中直接关闭
+    void killConnection() {
+        killed = true;
+        killQuery();
+        scheduler.handle(() -> {
+            if (!executing)
+                closeKilledConnection();
+        });
+    }
+
+    private void closeKilledConnection() {
+        if (!closed) {
+            close();
+            server.removeConnection(this);
+        }
+    }
+
+    String getUserName() {
+        AuthPacket p = authPacket;
+        return p == null ? null : p.user;
+    }
+
+    // COM_PROCESS_KILL，跟KILL CONNECTION一样
+    public void kill(long id) {
+        kill(id, false, ServerStatus.SERVER_STATUS_AUTOCOMMIT);
+    }
+
+    // 只能结束同一个用户的连接，管理员可以结束所有连接
+    private void kill(long id, boolean query, int status) {
+        MySQLServerConnection target = id > 0 && id <= Integer.MAX_VALUE ? server.getConnection((int) id)
+                : null;
+        if (target == null) {
+            nextStatements = null;
+            sendErrorMessage(ErrorCode.ER_NO_SUCH_THREAD, "Unknown thread id: " + id);
+            return;
+        }
+        if (!session.getUser().isAdmin() && !authPacket.user.equals(target.getUserName())) {
+            nextStatements = null;
+            sendErrorMessage(ErrorCode.ER_KILL_DENIED_ERROR, "You are not owner of thread " + id);
+            return;
+        }
+        logger.info("Kill " + (query ? "query " : "connection ") + id);
+        if (query)
+            target.killQuery();
+        else
+            target.killConnection();
+        writeOkPacket(0, status);
+        endResult();
+    }
+
+    // 在语句执行完之前，同一个连接后续的命令都先放到队列中，保证按顺序执行
+    private void beginAsync() {
+        executing = true;
+        executingPacketIdOffset = packetOutput.getPacketIdOffset();
+    }
+
+    // 执行完成的回调可能在其他线程中调用，写结果总是回到调度器线程中
+    private void endAsync(Runnable task) {
+        if (Thread.currentThread() == handlerThread)
+            completeAsync(task);
+        else
+            scheduler.handle(() -> completeAsync(task));
+    }
+
+    private void completeAsync(Runnable task) {
+        executing = false;
+        if (killed)
+            closeKilledConnection();
+        if (closed) {
+            closeExecutingSession();
+            return;
+        }
+        packetOutput.setPacketIdOffset(executingPacketIdOffset);
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.error("Failed to write result", e);
             sendErrorMessage(e);
+        } finally {
+            if (!pipelining)
+                packetOutput.flush();
+            packetOutput.setPacketIdOffset(0);
         }
+        handlePendingPackets();
     }
 
-    private void writeQueryResult(Result result) {
+    // 连接在语句执行期间被关闭，语句结束后回滚未提交的事务并关闭会话，不再放回池中
+    private void closeExecutingSession() {
+        if (openingCursor != null) {
+            openingCursor.close();
+            openingCursor = null;
+        }
+        ServerSession s = session;
+        if (s == null)
+            return;
+        session = null;
+        try {
+            s.rollback();
+        } catch (Throwable e) {
+            logger.error("Failed to rollback", e);
+        } finally {
+            releaseSession(databaseName, s, false);
+        }
+    }
+
+    public void fetch(FetchPacket packet) {
+        int statementId = (int) packet.statementId;
+        RowSpool spool = cursors.get(statementId);
+        if (spool == null) {
+            sendErrorMessage(ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                    "The statement (" + statementId + ") has no open cursor");
+            return;
+        }
+        QueryResultWriter writer = new QueryResultWriter(getPacketOutput(), textRow, null, true,
+                isEofDeprecated(), (byte) 0);
+        int status = ServerStatus.SERVER_STATUS_AUTOCOMMIT | ServerStatus.SERVER_STATUS_CURSOR_EXISTS;
+        for (long i = 0; i < packet.numRows; i++) {
+            if (!spool.hasNext()) {
+                status |= ServerStatus.SERVER_STATUS_LAST_ROW_SENT;
+                break;
+            }
+            writer.addEncodedRow(spool.next());
+        }
+        writer.writeEof(status);
+    }
+
+    // 查询产生的记录直接编码到RowSpool中，不生成LocalResult，执行成功后才返回结果集的元数据
+    private void openCursor(Query query, String sql, int statementId, int status) {
+        int[] types = getFieldDefinitions(query.getMetaData(), statementId).types;
+        RowSpool spool = new RowSpool(packetOutput);
+        openingCursor = spool;
+        beginAsync();
+        try {
+            CursorQuery cursorQuery = new CursorQuery(session, query, types, spool);
+            cursorQuery.executeUpdate().onComplete(ar -> endAsync(() -> {
+                openingCursor = null;
+                endStatement();
+                if (ar.isFailed()) {
+                    spool.close();
+                    sendExecuteError(sql, ar.getCause());
+                    return;
+                }
+                int cursorStatus = status | ServerStatus.SERVER_STATUS_CURSOR_EXISTS;
+                QueryResultWriter writer = writeResultSetMetaData(query.getMetaData(), statementId,
+                        cursorStatus);
+                cursors.put(statementId, spool);
+                // 不使用EOF包时，需要额外发送一个OK包把游标的状态告诉客户端
+                if (isEofDeprecated())
+                    writer.writeEof(cursorStatus);
+            }));
+        } catch (RuntimeException e) {
+            openingCursor = null;
+            spool.close();
+            throw e;
+        }
+    }
+
+    private void executeLoadData(MySQLLoadData loadData, String sql, int status) {
+        if (loadData.isLocal()) {
+            if (!server.isLocalInfile() || (clientFlags & Capabilities.CLIENT_LOCAL_FILES) == 0) {
+                nextStatements = null;
+                sendErrorMessage(ErrorCode.ER_NOT_ALLOWED_COMMAND,
+                        "The used command is not allowed with this MySQL version");
+                return;
+            }
+        }
+        try {
+            beginLoadData(loadData);
+        } catch (Throwable e) {
+            endLoadData(loadData, sql, status, e);
+            return;
+        }
+        if (loadData.isLocal()) {
+            // 让客户端发送文件，文件的内容在receiveLocalInfile中处理
+            localInfile = loadData;
+            localInfileSql = sql;
+            localInfileStatus = status;
+            LocalInfilePacket packet = new LocalInfilePacket();
+            packet.packetId = 1;
+            packet.fileName = loadData.getFileName().getBytes(StandardCharsets.UTF_8);
+            packet.write(getPacketOutput());
+            return;
+        }
+        Throwable cause = null;
+        // 由语句自己检查权限和secure_file_priv
+        try (InputStream in = loadData.openFile()) {
+            byte[] buff = new byte[64 * 1024];
+            for (int n; (n = in.read(buff)) > 0;) {
+                loadData.append(buff, 0, n);
+            }
+        } catch (Throwable e) {
+            cause = e;
+        }
+        endLoadData(loadData, sql, status, cause);
+    }
+
+    private void beginLoadData(MySQLLoadData loadData) {
+        loadData.setBatchSize(server.getLoadDataBatchSize());
+        // 自动提交模式下分段提交，否则等客户端自己提交事务
+        loadDataAutoCommit = session.isAutoCommit();
+        if (loadDataAutoCommit) {
+            session.setAutoCommit(false);
+            loadData.setCommitRows(server.getLoadDataCommitRows());
+        }
+        loadData.begin();
+    }
+
+    private void endLoadData(MySQLLoadData loadData, String sql, int status, Throwable cause) {
+        int updateCount = 0;
+        if (cause == null) {
+            try {
+                updateCount = loadData.end();
+            } catch (Throwable e) {
+                cause = e;
+            }
+        }
+        if (loadDataAutoCommit) {
+            loadDataAutoCommit = false;
+            try {
+                if (cause == null)
+                    session.commit();
+                else
+                    session.rollback();
+            } catch (Throwable e) {
+                if (cause == null)
+                    cause = e;
+            } finally {
+                session.setAutoCommit(true);
+            }
+        }
+        if (cause != null) {
+            sendExecuteError(sql, cause);
+        } else {
+            writeUpdateResult(updateCount, status);
+            endResult();
+        }
+    }
+
+    private void receiveLocalInfile(PacketInput in) {
+        MySQLLoadData loadData = localInfile;
+        if (in.length() > 4) {
+            // 出错后还要把剩下的包读完，最后再返回错误
+            if (localInfileError == null) {
+                try {
+                    in.position(4);
+                    byte[] bytes = in.readBytes();
+                    loadData.append(bytes, 0, bytes.length);
+                } catch (Throwable e) {
+                    localInfileError = e;
+                }
+            }
+            return;
+        }
+        // 空包表示文件结束，响应包的序号接着客户端最后一个包的序号
+        Throwable cause = localInfileError;
+        String sql = localInfileSql;
+        localInfile = null;
+        localInfileError = null;
+        localInfileSql = null;
+        packetOutput.setPacketIdOffset(in.read(3) & 0xff);
+        endLoadData(loadData, sql, localInfileStatus, cause);
+    }
+
+    // 跟MySQL一样，语句不存在或已经关闭时返回ER_UNKNOWN_STMT_HANDLER
+    public boolean checkStatement(int statementId, String command) {
+        if (session.getCache(statementId) != null)
+            return true;
+        sendErrorMessage(ErrorCode.ER_UNKNOWN_STMT_HANDLER,
+                "Unknown prepared statement handler (" + statementId + ") given to " + command);
+        return false;
+    }
+
+    public void executeBulk(BulkExecutePacket packet) {
+        int statementId = (int) packet.statementId;
+        PreparedSQLStatement ps = (PreparedSQLStatement) session.getCache(statementId);
+        String sql = ps.getSQL();
+        closeCursor(statementId);
+        if (ps.isQuery()) {
+            sendErrorMessage(ErrorCode.ER_NOT_SUPPORTED_YET, "Bulk execution of query is not supported");
+            return;
+        }
+        checkSessionReusable(ps);
+        logger.info("execute bulk sql: " + sql + ", rows: " + packet.rows.size());
+        // 自动提交模式下所有参数行在同一个事务中执行，最后只提交一次
+        boolean autoCommit = session.isAutoCommit();
+        if (autoCommit)
+            session.setAutoCommit(false);
+        MySQLBulkUpdate bulk = new MySQLBulkUpdate(session, (StatementBase) ps, packet.rows);
+        beginStatement(bulk);
+        beginAsync();
+        try {
+            bulk.executeUpdate().onComplete(ar -> {
+                if (ar.isFailed())
+                    endBulk(sql, 0, autoCommit, ar.getCause());
+                else
+                    endBulk(sql, ar.getResult(), autoCommit, null);
+            });
+        } catch (Throwable e) {
+            endBulk(sql, 0, autoCommit, e);
+        }
+    }
+
+    private void endBulk(String sql, int updateCount, boolean autoCommit, Throwable cause) {
+        endAsync(() -> {
+            endStatement();
+            if (autoCommit) {
+                try {
+                    if (cause == null && !closed)
+                        session.commit();
+                    else
+                        session.rollback();
+                } finally {
+                    session.setAutoCommit(true);
+                }
+            }
+            if (cause != null) {
+                sendExecuteError(sql, cause);
+            } else {
+                writeUpdateResult(updateCount, ServerStatus.SERVER_STATUS_AUTOCOMMIT);
+                endResult();
+            }
+        });
+    }
+
+    public void resetStatement(int statementId) {
+        closeCursor(statementId);
+        BoundParameters bound = boundParameters.get(statementId);
+        if (bound != null) {
+            bound.clearLongData();
+        }
+        writeOkPacket();
+    }
+
+    public BoundParameters getBoundParameters(int statementId) {
+        BoundParameters bound = boundParameters.get(statementId);
+        if (bound == null && session.getCache(statementId) != null) {
+            bound = new BoundParameters();
+            boundParameters.put(statementId, bound);
+        }
+        return bound;
+    }
+
+    public void appendLongData(int statementId, int parameterIndex, PacketInput in) {
+        // 语句不存在时直接忽略，执行时再报错
+        BoundParameters bound = getBoundParameters(statementId);
+        if (bound != null) {
+            bound.appendLongData(parameterIndex, in);
+        }
+    }
+
+    private void closeCursor(int statementId) {
+        RowSpool spool = cursors.remove(statementId);
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    private void closeCursors() {
+        for (RowSpool spool : cursors.values()) {
+            spool.close();
+        }
+        cursors.clear();
+    }
+
+    private FieldDefinitions getFieldDefinitions(Result result, int statementId) {
         int fieldCount = result.getVisibleColumnCount();
-        ResultSetHeaderPacket header = PacketUtil.getHeader(fieldCount);
-        FieldPacket[] fields = new FieldPacket[fieldCount];
-        EOFPacket eof = new EOFPacket();
-        byte packetId = 0;
-        header.packetId = ++packetId;
+        int[] types = new int[fieldCount];
         for (int i = 0; i < fieldCount; i++) {
-            fields[i] = PacketUtil.getField(result.getColumnName(i).toLowerCase(),
-                    Fields.toMySQLType(result.getColumnType(i)));
-            fields[i].packetId = ++packetId;
+            types[i] = Fields.toMySQLType(result.getColumnType(i));
         }
-        eof.packetId = ++packetId;
+        FieldDefinitions fd = statementId > 0 ? fieldDefinitionsCache.get(statementId) : null;
+        // 表结构变了之后重新编码
+        if (fd == null || !Arrays.equals(fd.types, types)) {
+            fd = new FieldDefinitions(result, types);
+            if (statementId > 0)
+                fieldDefinitionsCache.put(statementId, fd);
+        }
+        return fd;
+    }
+
+    private boolean isEofDeprecated() {
+        return (clientFlags & Capabilities.CLIENT_DEPRECATE_EOF) != 0;
+    }
+
+    private boolean isResultSetMetadataOptional() {
+        return (clientFlags & Capabilities.CLIENT_OPTIONAL_RESULTSET_METADATA) != 0;
+    }
+
+    private boolean isResultSetMetadataNone() {
+        Value v = session.getVariable(MySQLVariable.RESULTSET_METADATA);
+        return v != ValueNull.INSTANCE && "NONE".equalsIgnoreCase(v.getString());
+    }
 
+    // 写结果集头、字段定义和字段结束的EOF包，返回一个用来写后续记录的QueryResultWriter
+    private QueryResultWriter writeResultSetMetaData(Result result, int statementId, int status) {
         PacketOutput out = getPacketOutput();
+        FieldDefinitions fd = getFieldDefinitions(result, statementId);
+        ResultSetHeaderPacket header = PacketUtil.getHeader(fd.types.length);
+        boolean metadataFollows = true;
+        if (isResultSetMetadataOptional()) {
+            metadataFollows = !isResultSetMetadataNone();
+            header.metadataFollows = metadataFollows ? ResultSetHeaderPacket.RESULTSET_METADATA_FULL
+                    : ResultSetHeaderPacket.RESULTSET_METADATA_NONE;
+        }
+        byte packetId = header.packetId;
 
         // write header
         header.write(out);
 
-        // write fields
-        for (FieldPacket field : fields) {
-            field.write(out);
+        if (metadataFollows) {
+            // write fields
+            out.write(fd.packets);
+            packetId += fd.types.length;
+
+            // write eof
+            if (!isEofDeprecated()) {
+                EOFPacket eof = new EOFPacket();
+                eof.packetId = ++packetId;
+                eof.status = status;
+                eof.write(out);
+            }
         }
+        return new QueryResultWriter(out, textRow, fd.types, statementId > 0, isEofDeprecated(),
+                packetId);
+    }
 
-        // write eof
-        eof.write(out);
+    private void writeQueryResult(Result result, int statementId, int status) {
+        QueryResultWriter writer = writeResultSetMetaData(result, statementId, status);
+        writeRows(result, writer, status);
+    }
 
-        // write rows
-        packetId = eof.packetId;
-        for (int i = 0; i < result.getRowCount(); i++) {
-            RowDataPacket row = new RowDataPacket(fieldCount);
-            if (result.next()) {
-                Value[] values = result.currentRow();
-                for (int j = 0; j < fieldCount; j++) {
-                    if (values[j] == ValueNull.INSTANCE) {
-                        row.add(new byte[0]);
-                    } else {
-                        row.add(values[j].toString().getBytes());
-                    }
-                }
-                row.packetId = ++packetId;
-                row.write(out);
+    private void writeRows(Result result, QueryResultWriter writer, int status) {
+        while (result.next()) {
+            writer.addRow(result.currentRow());
+            if (!packetOutput.isWritable()) {
+                pause(result, () -> writeRows(result, writer, status));
+                return;
             }
         }
+        writer.writeEof(status);
+        result.close();
+        endResult();
+    }
 
-        // write last eof
-        EOFPacket lastEof = new EOFPacket();
-        lastEof.packetId = ++packetId;
-        lastEof.write(out);
+    private void pause(Result result, Runnable task) {
+        pausedResult = result;
+        pausedTask = task;
+        packetOutput.setDrainHandler(() -> scheduler.handle(() -> resume()));
     }
 
-    private void writeUpdateResult(int updateCount) {
-        writeOkPacket(updateCount);
+    private void resume() {
+        Runnable task = pausedTask;
+        if (task == null) // 连接已经关闭
+            return;
+        pausedResult = null;
+        pausedTask = null;
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.error("Failed to write query result", e);
+            sendErrorMessage(e);
+        } finally {
+            packetOutput.flush();
+        }
+        handlePendingPackets();
+    }
+
+    private void handlePendingPackets() {
+        while (pausedTask == null && !executing) {
+            if (remainingStatements != null) {
+                String sql = remainingStatements;
+                remainingStatements = null;
+                packetOutput.setPacketIdOffset(remainingPacketIdOffset);
+                try {
+                    executeStatement(sql);
+                } finally {
+                    if (!pipelining)
+                        packetOutput.flush();
+                    packetOutput.setPacketIdOffset(0);
+                }
+            } else if (!pendingPackets.isEmpty()) {
+                handlePacket(pendingPackets.poll());
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void writeUpdateResult(int updateCount, int status) {
+        writeOkPacket(updateCount, status);
     }
 
     public void writeOkPacket() {
-        writeOkPacket(0);
+        writeOkPacket(0, ServerStatus.SERVER_STATUS_AUTOCOMMIT);
     }
 
-    private void writeOkPacket(int updateCount) {
+    private void writeOkPacket(int updateCount, int status) {
         PacketOutput out = getPacketOutput();
         OkPacket packet = new OkPacket();
         packet.packetId = 1;
         packet.affectedRows = updateCount;
-        packet.serverStatus = 2;
+        packet.serverStatus = status;
         packet.write(out);
     }
 
@@ -284,14 +1318,14 @@ public class MySQLServerConnection extends AsyncConnection {
 
     public void sendErrorMessage(int errno, String msg) {
         ErrorPacket err = new ErrorPacket();
-        err.packetId = 0;
+        err.packetId = 1;
         err.errno = errno;
         err.message = encodeString(msg, "utf-8");
         err.write(getPacketOutput());
     }
 
     private PacketOutput getPacketOutput() {
-        return new PacketOutput(writableChannel, scheduler.getDataBufferFactory());
+        return packetOutput;
     }
 
     private void sendMessage(byte[] data) {
@@ -304,7 +1338,87 @@ public class MySQLServerConnection extends AsyncConnection {
         }
     }
 
-    private final ByteBuffer packetLengthByteBuffer = ByteBuffer.allocateDirect(4);
+    @Override
+    public void close() {
+        closed = true;
+        server.unregisterConnection(connectionId, this);
+        endStatement();
+        localInfile = null;
+        closeCursors();
+        for (BoundParameters bound : boundParameters.values()) {
+            bound.clearLongData();
+        }
+        boundParameters.clear();
+        if (pausedResult != null) {
+            pausedResult.close();
+            pausedResult = null;
+        }
+        pausedTask = null;
+        pendingPackets.clear();
+        // 还在执行语句的会话等语句结束后在completeAsync中回滚并关闭，这里只处理空闲的会话
+        if (authPacket != null) {
+            if (executing)
+                releaseIdleSessions();
+            else
+                releaseSessions();
+        }
+        packetOutput.close();
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        super.close();
+    }
+
+    private static class IdleSession {
+
+        final String databaseName;
+        final ServerSession session;
+        final boolean reusable;
+
+        IdleSession(String databaseName, ServerSession session, boolean reusable) {
+            this.databaseName = databaseName;
+            this.session = session;
+            this.reusable = reusable;
+        }
+    }
+
+    private static class FieldDefinitions {
+
+        final int[] types;
+        final byte[] packets; // 包含包头，packetId从2开始
+
+        FieldDefinitions(Result result, int[] types) {
+            this.types = types;
+            int fieldCount = types.length;
+            FieldPacket[] fields = new FieldPacket[fieldCount];
+            int size = 0;
+            for (int i = 0; i < fieldCount; i++) {
+                fields[i] = PacketUtil.getField(result.getColumnName(i).toLowerCase(), types[i]);
+                fields[i].packetId = (byte) (i + 2);
+                size += 4 + fields[i].calcPacketSize();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (FieldPacket field : fields) {
+                field.write(buffer);
+            }
+            packets = buffer.array();
+        }
+    }
+
+    // 使用压缩协议后包头是7个字节
+    private ByteBuffer packetLengthByteBuffer = ByteBuffer.allocateDirect(4);
+    private Inflater inflater;
+    // 压缩协议的一帧中可能只有一个包的一部分，剩下的部分在下一帧中
+    private byte[] pendingData;
+    // 正在合并的由多个包组成的请求，每个包的包体分开保存，最后一个包到了之后再按总长度一次合并
+    private ArrayList<byte[]> largePacket;
+    private int largePacketLength;
+    private int continuationPackets;
+    // 正在处理一次读到的多个包
+    private boolean pipelining;
+    // 上一次读到的数据中最后那个不完整的包
+    private byte[] incompletePacket;
 
     @Override
     public ByteBuffer getPacketLengthByteBuffer() {
@@ -321,21 +1435,242 @@ public class MySQLServerConnection extends AsyncConnection {
 
     @Override
     public void handle(NetBuffer buffer) {
+        handlerThread = Thread.currentThread();
         if (!buffer.isOnlyOnePacket()) {
-            DbException.throwInternalError("NetBuffer must be OnlyOnePacket");
+            handlePipelinedPackets(buffer);
+            return;
         }
         try {
             int length = buffer.length();
+            if (inflater != null) {
+                handleCompressedPacket(buffer, length);
+                return;
+            }
+            if (!checkPacketSize(length)) {
+                buffer.recycle();
+                return;
+            }
+            if (largePacket == null && length < PacketOutput.MAX_PACKET_SIZE) {
+                // 直接从NetBuffer中读取包的内容，处理完后再回收
+                byte packetId = packetLengthByteBuffer.get(3);
+                packetLengthByteBuffer.clear();
+                try {
+                    handlePacket(new PacketInput(buffer.getByteBuffer(), packetId, 0));
+                } finally {
+                    buffer.recycle();
+                }
+                return;
+            }
             byte[] packet = new byte[length + 4];
             packetLengthByteBuffer.get(packet, 0, 4);
             packetLengthByteBuffer.clear();
             buffer.read(packet, 4, length);
             buffer.recycle();
-            PacketInput input = new PacketInput(packet);
-            packetHandler.handle(input);
+            receivePacket(packet);
+        } catch (Throwable e) {
+            logger.error("Failed to handle packet", e);
+            sendErrorMessage(e);
+            packetOutput.flush();
+        }
+    }
+
+    // 客户端连续发送多个命令时，一次读到的数据中可能包含多个包(包括包头)，最后一个包也可能不完整。
+    // 按顺序执行所有完整的包，所有响应包都写完后再一次性写到通道，不完整的包等下一次读到数据后再处理
+    private void handlePipelinedPackets(NetBuffer buffer) {
+        ByteBuffer data = buffer.getByteBuffer();
+        if (incompletePacket != null) {
+            ByteBuffer tmp = ByteBuffer.allocate(incompletePacket.length + data.remaining());
+            tmp.put(incompletePacket).put(data).flip();
+            data = tmp;
+            incompletePacket = null;
+        }
+        pipelining = true;
+        try {
+            if (inflater != null)
+                incompletePacket = receiveCompressedPackets(data);
+            else
+                incompletePacket = receivePackets(data);
+        } catch (Throwable e) {
+            logger.error("Failed to handle packet", e);
+            sendErrorMessage(e);
+        } finally {
+            pipelining = false;
+            buffer.recycle();
+            packetOutput.flush();
+        }
+    }
+
+    // 按顺序处理data中所有完整的包，返回最后那个不完整的包，没有时返回null
+    private byte[] receivePackets(ByteBuffer data) {
+        while (!closed && data.remaining() >= 4) {
+            int pos = data.position();
+            int packetLength = (data.get(pos) & 0xff);
+            packetLength |= (data.get(pos + 1) & 0xff) << 8;
+            packetLength |= (data.get(pos + 2) & 0xff) << 16;
+            if (!checkPacketSize(packetLength))
+                return null;
+            if (data.remaining() < packetLength + 4)
+                break;
+            data.position(pos + 4 + packetLength);
+            if (largePacket == null && packetLength < PacketOutput.MAX_PACKET_SIZE) {
+                ByteBuffer body = data.duplicate();
+                body.position(pos + 4);
+                body.limit(pos + 4 + packetLength);
+                handlePacket(new PacketInput(body, data.get(pos + 3), 0));
+            } else {
+                byte[] packet = new byte[packetLength + 4];
+                ByteBuffer tmp = data.duplicate();
+                tmp.position(pos);
+                tmp.get(packet);
+                receivePacket(packet);
+            }
+        }
+        return getRemaining(data);
+    }
+
+    private byte[] receiveCompressedPackets(ByteBuffer data) throws DataFormatException {
+        while (!closed && data.remaining() >= 7) {
+            int pos = data.position();
+            int length = (data.get(pos) & 0xff);
+            length |= (data.get(pos + 1) & 0xff) << 8;
+            length |= (data.get(pos + 2) & 0xff) << 16;
+            if (data.remaining() < length + 7)
+                break;
+            int uncompressedLength = (data.get(pos + 4) & 0xff);
+            uncompressedLength |= (data.get(pos + 5) & 0xff) << 8;
+            uncompressedLength |= (data.get(pos + 6) & 0xff) << 16;
+            byte packetId = data.get(pos + 3);
+            byte[] frame = new byte[length];
+            data.position(pos + 7);
+            data.get(frame);
+            handleCompressedPacket(packetId, uncompressedLength, frame);
+        }
+        return getRemaining(data);
+    }
+
+    private static byte[] getRemaining(ByteBuffer data) {
+        if (!data.hasRemaining())
+            return null;
+        byte[] remaining = new byte[data.remaining()];
+        data.get(remaining);
+        return remaining;
+    }
+
+    // 包体长度为0xFFFFFF时表示后面还有包，要把这些包的包体合并起来才是一个完整的请求
+    private void receivePacket(byte[] packet) {
+        int length = packet.length - 4;
+        if (largePacket == null) {
+            if (length < PacketOutput.MAX_PACKET_SIZE) {
+                handlePacket(new PacketInput(packet));
+                return;
+            }
+            largePacket = new ArrayList<>();
+            largePacketLength = 0;
+            continuationPackets = -1;
+        }
+        if (!checkPacketSize((long) largePacketLength + length))
+            return;
+        largePacket.add(packet);
+        largePacketLength += length;
+        continuationPackets++;
+        if (length < PacketOutput.MAX_PACKET_SIZE) {
+            // 第一个包的包头也保留下来，PacketInput从第5个字节开始读
+            byte[] merged = new byte[largePacketLength + 4];
+            System.arraycopy(largePacket.get(0), 0, merged, 0, 4);
+            int pos = 4;
+            for (byte[] p : largePacket) {
+                System.arraycopy(p, 4, merged, pos, p.length - 4);
+                pos += p.length - 4;
+            }
+            largePacket = null;
+            handlePacket(new PacketInput(merged, continuationPackets));
+        }
+    }
+
+    // 跟MySQL一样，请求超过max_allowed_packet时返回错误然后关闭连接，因为剩下的包已经没办法再解析了
+    private boolean checkPacketSize(long length) {
+        if (length <= server.getMaxAllowedPacket())
+            return true;
+        logger.info("Got a packet bigger than 'max_allowed_packet' bytes: " + length);
+        largePacket = null;
+        sendErrorMessage(ErrorCode.ER_NET_PACKET_TOO_LARGE,
+                "Got a packet bigger than 'max_allowed_packet' bytes");
+        packetOutput.flush();
+        close();
+        server.removeConnection(this);
+        return false;
+    }
+
+    private void handlePacket(PacketInput input) {
+        // 上一个命令还没有执行完或者结果集还没有写完
+        if (pausedTask != null || executing || remainingStatements != null) {
+            pendingPackets.add(input.copy()); // 网络缓冲区很快就会回收
+            return;
+        }
+        packetOutput.setPacketIdOffset(input.getContinuationPackets());
+        try {
+            if (localInfile != null)
+                receiveLocalInfile(input);
+            else
+                packetHandler.handle(input);
         } catch (Throwable e) {
             logger.error("Failed to handle packet", e);
             sendErrorMessage(e);
+        } finally {
+            // 一个命令的所有响应包都写完后才一次性写到通道，连续的多个命令的响应包等全部写完后再写
+            if (!pipelining)
+                packetOutput.flush();
+            packetOutput.setPacketIdOffset(0);
         }
+        handlePendingPackets();
+    }
+
+    // 压缩协议的帧格式:
+    // 3个字节的压缩后长度 + 1个字节的序号 + 3个字节的压缩前长度(为0时表示没有压缩) + 数据
+    private void handleCompressedPacket(NetBuffer buffer, int length) throws DataFormatException {
+        int uncompressedLength = (packetLengthByteBuffer.get(4) & 0xff);
+        uncompressedLength |= (packetLengthByteBuffer.get(5) & 0xff) << 8;
+        uncompressedLength |= (packetLengthByteBuffer.get(6) & 0xff) << 16;
+        byte packetId = packetLengthByteBuffer.get(3);
+        packetLengthByteBuffer.clear();
+        byte[] data = new byte[length];
+        buffer.read(data, 0, length);
+        buffer.recycle();
+        // 一帧中的多个包的响应也合并后再写到通道
+        pipelining = true;
+        try {
+            handleCompressedPacket(packetId, uncompressedLength, data);
+        } finally {
+            pipelining = false;
+            packetOutput.flush();
+        }
+    }
+
+    private void handleCompressedPacket(byte packetId, int uncompressedLength, byte[] data)
+            throws DataFormatException {
+        packetOutput.setCompressedPacketId((byte) (packetId + 1));
+        if (uncompressedLength > 0) {
+            byte[] uncompressed = new byte[uncompressedLength];
+            inflater.reset();
+            inflater.setInput(data);
+            int n = 0;
+            while (n < uncompressedLength && !inflater.finished() && !inflater.needsInput()
+                    && !inflater.needsDictionary()) {
+                n += inflater.inflate(uncompressed, n, uncompressedLength - n);
+            }
+            if (n != uncompressedLength)
+                throw new DataFormatException("Invalid compressed packet");
+            data = uncompressed;
+        }
+        if (pendingData != null) {
+            byte[] tmp = new byte[pendingData.length + data.length];
+            System.arraycopy(pendingData, 0, tmp, 0, pendingData.length);
+            System.arraycopy(data, 0, tmp, pendingData.length, data.length);
+            data = tmp;
+            pendingData = null;
+        }
+
+        // 解压后的数据是普通的包，可能有多个
+        pendingData = receivePackets(ByteBuffer.wrap(data));
     }
 }
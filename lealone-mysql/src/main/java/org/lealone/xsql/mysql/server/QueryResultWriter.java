@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server;
+
+import org.lealone.db.value.Value;
+import org.lealone.xsql.mysql.server.protocol.BinaryRowDataPacket;
+import org.lealone.xsql.mysql.server.protocol.EncodedPacket;
+import org.lealone.xsql.mysql.server.protocol.EOFPacket;
+import org.lealone.xsql.mysql.server.protocol.OkPacket;
+import org.lealone.xsql.mysql.server.protocol.PacketOutput;
+import org.lealone.xsql.mysql.server.protocol.ResponsePacket;
+import org.lealone.xsql.mysql.server.protocol.TextRowDataPacket;
+
+/**
+ * 把结果集中的记录逐条编码成文本协议或二进制协议的行数据包。
+ */
+class QueryResultWriter {
+
+    private final PacketOutput out;
+    private final TextRowDataPacket textRow;
+    private final int[] types;
+    private final boolean binary;
+    private final boolean deprecateEof;
+    private byte packetId;
+
+    QueryResultWriter(PacketOutput out, TextRowDataPacket textRow, int[] types, boolean binary,
+            boolean deprecateEof, byte packetId) {
+        this.out = out;
+        this.textRow = textRow;
+        this.types = types;
+        this.binary = binary;
+        this.deprecateEof = deprecateEof;
+        this.packetId = packetId;
+    }
+
+    void addRow(Value[] values) {
+        ResponsePacket row;
+        if (binary) {
+            row = new BinaryRowDataPacket(types, values);
+        } else {
+            textRow.setValues(values, types.length);
+            row = textRow;
+        }
+        row.packetId = ++packetId;
+        row.write(out);
+        packetId = row.packetId; // 超大的记录会拆成多个包
+    }
+
+    // 写出一个已经编码好的行数据包，比如从RowSpool中读出的记录
+    void addEncodedRow(byte[] body) {
+        EncodedPacket row = new EncodedPacket(body);
+        row.packetId = ++packetId;
+        row.write(out);
+        packetId = row.packetId;
+    }
+
+    void writeEof(int status) {
+        if (deprecateEof) {
+            OkPacket ok = new OkPacket();
+            ok.fieldCount = OkPacket.EOF_HEADER;
+            ok.packetId = ++packetId;
+            ok.serverStatus = status;
+            ok.write(out);
+            return;
+        }
+        EOFPacket eof = new EOFPacket();
+        eof.packetId = ++packetId;
+        eof.status = status;
+        eof.write(out);
+    }
+}
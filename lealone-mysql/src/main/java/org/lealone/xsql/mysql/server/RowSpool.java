@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.xsql.mysql.server.protocol.PacketOutput;
+import org.lealone.xsql.mysql.server.protocol.ResponsePacket;
+
+/**
+ * 按顺序保存编码好的行数据包的包体，先全部写入，然后再按顺序读出。
+ *
+ * 内存中只有一个固定大小的缓冲区，写满后的数据放到临时文件中，读的时候每次只读出一行，
+ * 所以不管有多少行，占用的内存都不会超过这个缓冲区。
+ */
+class RowSpool {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 编码文本和二进制行数据包时，writeBody会预先确保缓冲区中还有几个字节的空间
+    private static final int ENCODE_RESERVED = 32;
+
+    private final PacketOutput out;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private Path path;
+    private FileChannel channel;
+    private long filePosition; // 读的时候是文件中下一次要读的位置
+    private long fileLength;
+    private boolean reading;
+
+    RowSpool(PacketOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * 编码一行并追加到最后
+     */
+    void add(ResponsePacket row) {
+        int size = row.calcPacketSize();
+        int n = 4 + size + ENCODE_RESERVED;
+        ByteBuffer buff = buffer;
+        if (buff.remaining() < n) {
+            writeToFile(buff);
+            // 超过缓冲区的行单独编码后直接写到文件
+            if (n > buff.capacity())
+                buff = ByteBuffer.allocate(n);
+        }
+        buff.putInt(size);
+        // 预留了足够的空间，所以writeBody不会把数据写到PacketOutput的缓冲区
+        row.writeBody(buff, out);
+        if (buff != buffer)
+            writeToFile(buff);
+    }
+
+    /**
+     * 是否还有没有读出的行，第一次调用后就不能再追加
+     */
+    boolean hasNext() {
+        if (!reading) {
+            reading = true;
+            if (channel != null)
+                writeToFile(buffer);
+            buffer.flip();
+            if (channel != null)
+                buffer.limit(0); // 所有的数据都在文件中
+        }
+        return buffer.hasRemaining() || filePosition < fileLength;
+    }
+
+    /**
+     * 读出下一行的包体
+     */
+    byte[] next() {
+        int size = readBuffer(4).getInt();
+        byte[] body = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+            ByteBuffer buff = readBuffer(1);
+            int len = Math.min(buff.remaining(), size - offset);
+            buff.get(body, offset, len);
+            offset += len;
+        }
+        return body;
+    }
+
+    void close() {
+        buffer = null;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // 只是临时文件，忽略
+            }
+            channel = null;
+        }
+    }
+
+    // 返回至少还有n个字节可读的缓冲区，n不能超过缓冲区的大小
+    private ByteBuffer readBuffer(int n) {
+        if (buffer.remaining() >= n)
+            return buffer;
+        buffer.compact();
+        try {
+            while (buffer.position() < n) {
+                int len = channel.read(buffer, filePosition);
+                if (len < 0)
+                    throw DbException.throwInternalError("Unexpected end of spool file");
+                filePosition += len;
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, path.toString());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeToFile(ByteBuffer buff) {
+        buff.flip();
+        try {
+            if (channel == null) {
+                path = Files.createTempFile("mysql-spool-", ".tmp");
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            while (buff.hasRemaining()) {
+                fileLength += channel.write(buff, fileLength);
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, path == null ? null : path.toString());
+        }
+        buff.clear();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
+import org.lealone.db.session.ServerSession;
+
+/**
+ * 按数据库和用户分组的会话池，服务器启动时可以预先创建，连接关闭时把会话放回池中。
+ *
+ * 从池中取出的会话还要用它当前的用户对象验证客户端发送的密码，所以修改密码或删除用户后，
+ * 池中的会话不会被错误地使用。只有没有改变过会话状态的会话才放回池中，放回之前先回滚未提交的事务，
+ * 池满了或者会话空闲超过maxIdleTime时直接关闭。
+ */
+class SessionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+    private final int maxSize;
+    private final long maxIdleTime;
+    private final HashMap<String, ArrayDeque<PooledSession>> pools = new HashMap<>();
+
+    /**
+     * @param maxSize 每个数据库和用户最多保存的空闲会话个数，0表示不使用会话池
+     * @param maxIdleTime 空闲会话最多保存的毫秒数，0表示不限制
+     */
+    SessionPool(int maxSize, long maxIdleTime) {
+        this.maxSize = maxSize;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    ServerSession poll(String dbName, String user) {
+        if (maxSize <= 0)
+            return null;
+        long now = System.currentTimeMillis();
+        while (true) {
+            PooledSession ps;
+            synchronized (pools) {
+                ArrayDeque<PooledSession> pool = pools.get(getKey(dbName, user));
+                ps = pool == null ? null : pool.pollLast(); // 最近放回的会话最不可能过期
+            }
+            if (ps == null)
+                return null;
+            if (maxIdleTime <= 0 || now - ps.releaseTime < maxIdleTime)
+                return ps.session;
+            closeSession(ps.session);
+        }
+    }
+
+    /**
+     * @param reusable 为false时会话的状态已经改变过，不能再给其他连接使用
+     */
+    void release(String dbName, String user, ServerSession session, boolean reusable) {
+        if (maxSize <= 0 || !reusable) {
+            closeSession(session);
+            return;
+        }
+        try {
+            session.rollback();
+            session.setAutoCommit(true);
+        } catch (Throwable e) {
+            closeSession(session);
+            return;
+        }
+        synchronized (pools) {
+            ArrayDeque<PooledSession> pool = pools.computeIfAbsent(getKey(dbName, user),
+                    k -> new ArrayDeque<>());
+            if (pool.size() < maxSize) {
+                pool.addLast(new PooledSession(session, System.currentTimeMillis()));
+                return;
+            }
+        }
+        closeSession(session);
+    }
+
+    private static String getKey(String dbName, String user) {
+        return dbName + '\0' + user;
+    }
+
+    private static void closeSession(ServerSession session) {
+        try {
+            session.close();
+        } catch (Throwable e) {
+            logger.error("Failed to close session", e);
+        }
+    }
+
+    private static class PooledSession {
+
+        final ServerSession session;
+        final long releaseTime;
+
+        PooledSession(ServerSession session, long releaseTime) {
+            this.session = session;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
@@ -24,13 +24,26 @@ import org.lealone.xsql.mysql.server.protocol.PacketInput;
 public class AuthPacketHandler implements PacketHandler {
 
     private final MySQLServerConnection conn;
+    private boolean authPacketReceived;
 
     public AuthPacketHandler(MySQLServerConnection conn) {
         this.conn = conn;
     }
 
+    // COM_CHANGE_USER已经包含了认证数据，之后的包直接交给认证插件
+    public AuthPacketHandler(MySQLServerConnection conn, boolean authPacketReceived) {
+        this.conn = conn;
+        this.authPacketReceived = authPacketReceived;
+    }
+
     @Override
     public void handle(PacketInput in) {
+        // 握手响应包之后的包是认证插件需要的数据
+        if (authPacketReceived) {
+            conn.continueAuthentication(in);
+            return;
+        }
+        authPacketReceived = true;
         AuthPacket authPacket = new AuthPacket();
         authPacket.read(in);
         conn.authenticate(authPacket);
@@ -17,9 +17,14 @@
  */
 package org.lealone.xsql.mysql.server.handler;
 
+import java.nio.charset.StandardCharsets;
+
 import org.lealone.xsql.mysql.server.MySQLServerConnection;
+import org.lealone.xsql.mysql.server.protocol.BulkExecutePacket;
+import org.lealone.xsql.mysql.server.protocol.ChangeUserPacket;
 import org.lealone.xsql.mysql.server.protocol.ErrorCode;
 import org.lealone.xsql.mysql.server.protocol.ExecutePacket;
+import org.lealone.xsql.mysql.server.protocol.FetchPacket;
 import org.lealone.xsql.mysql.server.protocol.InitDbPacket;
 import org.lealone.xsql.mysql.server.protocol.PacketInput;
 import org.lealone.xsql.mysql.server.protocol.PacketType;
@@ -35,7 +40,7 @@ public class CommandPacketHandler implements PacketHandler {
     private String readSql(PacketInput in) {
         in.position(5);
         // 使用指定的编码来读取数据
-        return in.readString("utf-8");
+        return in.readString(StandardCharsets.UTF_8);
     }
 
     @Override
@@ -52,25 +57,78 @@ public class CommandPacketHandler implements PacketHandler {
             break;
         }
         case PacketType.COM_STMT_EXECUTE: {
+            in.position(5);
+            int statementId = in.readInt();
+            in.position(0);
+            if (!conn.checkStatement(statementId, "mysqld_stmt_execute"))
+                break;
             ExecutePacket packet = new ExecutePacket();
-            packet.read(in, "utf-8", conn.getSession());
+            packet.read(in, "utf-8", conn.getSession(), conn.getBoundParameters(statementId));
             conn.executeStatement(packet);
             break;
         }
+        case PacketType.COM_STMT_BULK_EXECUTE: {
+            in.position(5);
+            int statementId = in.readInt();
+            in.position(0);
+            if (!conn.checkStatement(statementId, "mysqld_stmt_bulk_execute"))
+                break;
+            BulkExecutePacket packet = new BulkExecutePacket();
+            packet.read(in, "utf-8", conn.getSession(), conn.getBoundParameters(statementId));
+            conn.executeBulk(packet);
+            break;
+        }
+        case PacketType.COM_STMT_SEND_LONG_DATA: {
+            // 不需要响应
+            in.position(5);
+            int statementId = in.readInt();
+            int parameterIndex = in.readUB2();
+            conn.appendLongData(statementId, parameterIndex, in);
+            break;
+        }
+        case PacketType.COM_STMT_FETCH: {
+            FetchPacket packet = new FetchPacket();
+            packet.read(in);
+            conn.fetch(packet);
+            break;
+        }
         case PacketType.COM_STMT_CLOSE:
             in.position(5);
             conn.closeStatement(in.readInt());
             break;
+        case PacketType.COM_STMT_RESET:
+            in.position(5);
+            conn.resetStatement(in.readInt());
+            break;
         case PacketType.COM_INIT_DB:
             InitDbPacket packet = new InitDbPacket();
             packet.read(in);
             conn.initDatabase(packet.database);
             conn.writeOkPacket();
             break;
+        case PacketType.COM_RESET_CONNECTION:
+            conn.resetConnection();
+            break;
+        case PacketType.COM_CHANGE_USER: {
+            ChangeUserPacket changeUserPacket = new ChangeUserPacket();
+            changeUserPacket.read(in, conn.getClientFlags());
+            conn.changeUser(changeUserPacket);
+            break;
+        }
+        case PacketType.COM_SET_OPTION:
+            in.position(5);
+            conn.setOption(in.readUB2());
+            break;
+        case PacketType.COM_STATISTICS:
+            conn.writeStatistics();
+            break;
         case PacketType.COM_QUIT:
             conn.close();
             break;
-        case PacketType.COM_PROCESS_KILL: // 直接返回OkPacket
+        case PacketType.COM_PROCESS_KILL:
+            in.position(5);
+            conn.kill(in.readUB4());
+            break;
         case PacketType.COM_PING:
             conn.writeOkPacket();
             break;
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * From server to client during authentication, 认证插件需要跟客户端多次交互时使用。
+ *
+ * <pre>
+ * Bytes                 Name
+ * -----                 ----
+ * 1                     header, always = 0x01
+ * n                     authentication method data (string.EOF)
+ *
+ * @see https://dev.mysql.com/doc/dev/mysql-server/latest/page_protocol_connection_phase_packets_protocol_auth_more_data.html
+ * </pre>
+ */
+public class AuthMoreDataPacket extends ResponsePacket {
+
+    public static final byte HEADER = 0x01;
+
+    public byte[] data;
+
+    public AuthMoreDataPacket(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Auth More Data Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return 1 + data.length;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        buffer.put(HEADER);
+        buffer.put(data);
+    }
+}
@@ -30,6 +30,7 @@ import org.lealone.xsql.mysql.server.util.Capabilities;
  * n (Null-Terminated String)   user
  * n (Length Coded Binary)      scramble_buff (1 + x bytes)
  * n (Null-Terminated String)   databasename (optional)
+ * n (Null-Terminated String)   auth_plugin_name (optional)
  * 
  * @see http://forge.mysql.com/wiki/MySQL_Internals_ClientServer_Protocol#Client_Authentication_Packet
  * </pre>
@@ -39,6 +40,9 @@ import org.lealone.xsql.mysql.server.util.Capabilities;
  */
 public class AuthPacket extends RequestPacket {
 
+    public static final String MYSQL_NATIVE_PASSWORD = "mysql_native_password";
+    public static final String CACHING_SHA2_PASSWORD = "caching_sha2_password";
+
     private static final byte[] FILLER = new byte[23];
 
     public long clientFlags;
@@ -48,6 +52,7 @@ public class AuthPacket extends RequestPacket {
     public String user;
     public byte[] password;
     public String database;
+    public String authPluginName; // 为null时客户端不支持CLIENT_PLUGIN_AUTH，password按mysql_native_password处理
 
     @Override
     public String getPacketInfo() {
@@ -64,9 +69,7 @@ public class AuthPacket extends RequestPacket {
         int current = in.position();
         int len = (int) in.readLength();
         if (len > 0 && len < FILLER.length) {
-            byte[] ab = new byte[len];
-            System.arraycopy(in.bytes(), in.position(), ab, 0, len);
-            this.extra = ab;
+            this.extra = in.readBytes(len);
         }
         in.position(current + FILLER.length);
         user = in.readStringWithNull();
@@ -74,5 +77,8 @@ public class AuthPacket extends RequestPacket {
         if (((clientFlags & Capabilities.CLIENT_CONNECT_WITH_DB) != 0) && in.hasRemaining()) {
             database = in.readStringWithNull();
         }
+        if (((clientFlags & Capabilities.CLIENT_PLUGIN_AUTH) != 0) && in.hasRemaining()) {
+            authPluginName = in.readStringWithNull();
+        }
     }
 }
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.lealone.xsql.mysql.server.util.BufferUtil;
+
+/**
+ * From server to client during authentication, 让客户端换成另一个认证插件重新发送认证数据。
+ *
+ * <pre>
+ * Bytes                        Name
+ * -----                        ----
+ * 1                            header, always = 0xfe
+ * n (Null-Terminated String)   plugin name
+ * n (Null-Terminated String)   auth plugin data
+ *
+ * @see https://dev.mysql.com/doc/dev/mysql-server/latest/page_protocol_connection_phase_packets_protocol_auth_switch_request.html
+ * </pre>
+ */
+public class AuthSwitchRequestPacket extends ResponsePacket {
+
+    public static final byte HEADER = (byte) 0xfe;
+
+    public byte[] pluginName;
+    public byte[] authPluginData;
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Auth Switch Request Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return 1 + pluginName.length + 1 + authPluginData.length + 1;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        buffer.put(HEADER);
+        BufferUtil.writeWithNull(buffer, pluginName);
+        BufferUtil.writeWithNull(buffer, authPluginData);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.xsql.mysql.server.util.BufferUtil;
+
+/**
+ * From server to client. One packet for each row in the result set of COM_STMT_EXECUTE.
+ *
+ * <pre>
+ * Bytes                      Name
+ * -----                      ----
+ * 1                          packet header, always 0x00
+ * (column_count+7+2)/8       NULL bitmap, the first 2 bits are reserved
+ * n                          values for all non-NULL columns
+ *
+ * (values): integer and floating point types are fixed-width little-endian,
+ *           DATE/DATETIME/TIMESTAMP/TIME are length prefixed binary structures,
+ *           all other types are Length Coded Strings.
+ *
+ * @see http://dev.mysql.com/doc/internals/en/binary-protocol-resultset-row.html
+ * </pre>
+ */
+public class BinaryRowDataPacket extends ResponsePacket {
+
+    private static final int NULL_BITMAP_OFFSET = 2;
+
+    public final int fieldCount;
+    public final int[] fieldTypes;
+    public final Value[] fieldValues;
+    private final byte[][] bytesValues;
+    private final byte[] nullBitMap;
+
+    public BinaryRowDataPacket(int[] fieldTypes, Value[] fieldValues) {
+        this.fieldCount = fieldTypes.length;
+        this.fieldTypes = fieldTypes;
+        this.fieldValues = fieldValues;
+        this.bytesValues = new byte[fieldCount][];
+        this.nullBitMap = new byte[(fieldCount + 7 + NULL_BITMAP_OFFSET) / 8];
+    }
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Binary RowData Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        int size = 1 + nullBitMap.length;
+        for (int i = 0; i < fieldCount; i++) {
+            Value v = fieldValues[i];
+            if (v == null || v == ValueNull.INSTANCE) {
+                int bit = i + NULL_BITMAP_OFFSET;
+                nullBitMap[bit / 8] |= (byte) (1 << (bit & 7));
+                continue;
+            }
+            switch (fieldTypes[i]) {
+            case Fields.FIELD_TYPE_TINY:
+                size += 1;
+                break;
+            case Fields.FIELD_TYPE_SHORT:
+            case Fields.FIELD_TYPE_YEAR:
+                size += 2;
+                break;
+            case Fields.FIELD_TYPE_LONG:
+            case Fields.FIELD_TYPE_INT24:
+            case Fields.FIELD_TYPE_FLOAT:
+                size += 4;
+                break;
+            case Fields.FIELD_TYPE_LONGLONG:
+            case Fields.FIELD_TYPE_DOUBLE:
+                size += 8;
+                break;
+            case Fields.FIELD_TYPE_DATE:
+                size += 5; // 1+4
+                break;
+            case Fields.FIELD_TYPE_DATETIME:
+            case Fields.FIELD_TYPE_TIMESTAMP:
+                size += 12; // 1+11
+                break;
+            case Fields.FIELD_TYPE_TIME:
+                size += 13; // 1+12
+                break;
+            default:
+                byte[] bytes = getBytes(fieldTypes[i], v);
+                bytesValues[i] = bytes;
+                size += BufferUtil.getLength(bytes);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        buffer = out.ensureRemaining(buffer, 1 + nullBitMap.length);
+        buffer.put((byte) 0);
+        buffer.put(nullBitMap);
+        for (int i = 0; i < fieldCount; i++) {
+            Value v = fieldValues[i];
+            if (v == null || v == ValueNull.INSTANCE) {
+                continue;
+            }
+            // 定长的值最多13个字节，变长的值先写最多9个字节的长度
+            buffer = out.ensureRemaining(buffer, 13);
+            switch (fieldTypes[i]) {
+            case Fields.FIELD_TYPE_TINY:
+                buffer.put(v.getByte());
+                break;
+            case Fields.FIELD_TYPE_SHORT:
+            case Fields.FIELD_TYPE_YEAR:
+                BufferUtil.writeUB2(buffer, v.getShort());
+                break;
+            case Fields.FIELD_TYPE_LONG:
+            case Fields.FIELD_TYPE_INT24:
+                BufferUtil.writeInt(buffer, v.getInt());
+                break;
+            case Fields.FIELD_TYPE_FLOAT:
+                BufferUtil.writeFloat(buffer, v.getFloat());
+                break;
+            case Fields.FIELD_TYPE_LONGLONG:
+                BufferUtil.writeLong(buffer, v.getLong());
+                break;
+            case Fields.FIELD_TYPE_DOUBLE:
+                BufferUtil.writeDouble(buffer, v.getDouble());
+                break;
+            case Fields.FIELD_TYPE_DATE:
+                writeDate(buffer, v.getDate().toLocalDate());
+                break;
+            case Fields.FIELD_TYPE_DATETIME:
+            case Fields.FIELD_TYPE_TIMESTAMP:
+                writeDateTime(buffer, v.getTimestamp().toLocalDateTime());
+                break;
+            case Fields.FIELD_TYPE_TIME:
+                writeTime(buffer, v.getTime().toLocalTime());
+                break;
+            default:
+                byte[] bytes = bytesValues[i];
+                BufferUtil.writeLength(buffer, bytes.length);
+                buffer = out.writeToBuffer(bytes, buffer);
+            }
+        }
+    }
+
+    private static byte[] getBytes(int fieldType, Value v) {
+        switch (fieldType) {
+        case Fields.FIELD_TYPE_TINY_BLOB:
+        case Fields.FIELD_TYPE_MEDIUM_BLOB:
+        case Fields.FIELD_TYPE_LONG_BLOB:
+        case Fields.FIELD_TYPE_BLOB:
+        case Fields.FIELD_TYPE_GEOMETRY:
+            return v.getBytesNoCopy();
+        default:
+            return v.getString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // 总是发送完整长度的结构，客户端按长度字节来解析，这样就不需要预先判断值是否为0
+    private static void writeDate(ByteBuffer buffer, LocalDate d) {
+        buffer.put((byte) 4);
+        BufferUtil.writeUB2(buffer, d.getYear());
+        buffer.put((byte) d.getMonthValue());
+        buffer.put((byte) d.getDayOfMonth());
+    }
+
+    private static void writeDateTime(ByteBuffer buffer, LocalDateTime dt) {
+        buffer.put((byte) 11);
+        BufferUtil.writeUB2(buffer, dt.getYear());
+        buffer.put((byte) dt.getMonthValue());
+        buffer.put((byte) dt.getDayOfMonth());
+        buffer.put((byte) dt.getHour());
+        buffer.put((byte) dt.getMinute());
+        buffer.put((byte) dt.getSecond());
+        BufferUtil.writeUB4(buffer, dt.getNano() / 1000);
+    }
+
+    private static void writeTime(ByteBuffer buffer, LocalTime t) {
+        buffer.put((byte) 12);
+        buffer.put((byte) 0); // is_negative
+        BufferUtil.writeUB4(buffer, 0); // days
+        buffer.put((byte) t.getHour());
+        buffer.put((byte) t.getMinute());
+        buffer.put((byte) t.getSecond());
+        BufferUtil.writeUB4(buffer, t.getNano() / 1000);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+/**
+ * 一个预处理语句在连接中的参数状态，包括最近一次绑定的参数类型和通过COM_STMT_SEND_LONG_DATA发送的参数值。
+ * 客户端只在第一次执行或重新绑定参数时才发送参数类型，所以要保存起来给后面的执行使用。
+ */
+public class BoundParameters {
+
+    private int[] types;
+    private LongDataBuffer[] longData;
+
+    public int[] getTypes() {
+        return types;
+    }
+
+    public void setTypes(int[] types) {
+        this.types = types;
+    }
+
+    public void appendLongData(int index, PacketInput in) {
+        if (longData == null) {
+            longData = new LongDataBuffer[index + 1];
+        } else if (index >= longData.length) {
+            LongDataBuffer[] old = longData;
+            longData = new LongDataBuffer[index + 1];
+            System.arraycopy(old, 0, longData, 0, old.length);
+        }
+        if (longData[index] == null)
+            longData[index] = new LongDataBuffer();
+        longData[index].append(in);
+    }
+
+    /**
+     * 返回null说明这个参数没有通过COM_STMT_SEND_LONG_DATA发送数据
+     */
+    public LongDataBuffer getLongData(int index) {
+        if (longData == null || index >= longData.length)
+            return null;
+        return longData[index];
+    }
+
+    public boolean hasLongData() {
+        return longData != null;
+    }
+
+    /**
+     * 执行语句或COM_STMT_RESET之后清除已经发送的数据
+     */
+    public void clearLongData() {
+        if (longData != null) {
+            for (LongDataBuffer buffer : longData) {
+                if (buffer != null)
+                    buffer.close();
+            }
+            longData = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.PreparedSQLStatement;
+
+/**
+ * MariaDB的COM_STMT_BULK_EXECUTE，一个包中包含同一个预处理语句的多组参数。
+ *
+ * <pre>
+ * Bytes                      Name
+ * -----                      ----
+ * 1                          code, always 0xfa
+ * 4                          statement_id
+ * 2                          bulk_flags
+ * n*2                        type of parameters (if bulk_flags & SEND_TYPES_TO_SERVER)
+ * n                          rows of parameters until the end of the packet,
+ *                            each parameter is a 1 byte indicator followed by the value if indicator is NONE
+ *
+ * @see https://mariadb.com/kb/en/com_stmt_bulk_execute/
+ * </pre>
+ */
+public class BulkExecutePacket extends RequestPacket {
+
+    public static final int SEND_UNIT_RESULTS = 64;
+    public static final int SEND_TYPES_TO_SERVER = 128;
+
+    public static final byte INDICATOR_NONE = 0;
+    public static final byte INDICATOR_NULL = 1;
+    public static final byte INDICATOR_DEFAULT = 2;
+    public static final byte INDICATOR_IGNORE = 3;
+
+    public byte code;
+    public long statementId;
+    public int bulkFlags;
+    public int[] types;
+    public final List<Value[]> rows = new ArrayList<>();
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Bulk Execute Packet";
+    }
+
+    /**
+     * 一次把所有的参数行都解码出来，语句是异步执行的，执行时网络缓冲区可能已经回收了
+     */
+    public void read(PacketInput in, String charset, ServerSession session, BoundParameters bound) {
+        super.read(in);
+        code = in.read();
+        statementId = in.readUB4();
+        bulkFlags = in.readUB2();
+
+        PreparedSQLStatement stmt = (PreparedSQLStatement) session.getCache((int) statementId);
+        int parameterCount = stmt.getParameters().size();
+        if ((bulkFlags & SEND_TYPES_TO_SERVER) != 0) {
+            types = new int[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                types[i] = in.readUB2();
+            }
+            if (bound != null)
+                bound.setTypes(types);
+        } else if (bound != null && bound.getTypes() != null) {
+            types = bound.getTypes();
+        } else {
+            throw DbException.getInvalidValueException("bulk_flags", bulkFlags);
+        }
+
+        Charset cs = charset == null ? StandardCharsets.UTF_8 : PacketInput.getCharset(charset);
+        while (in.hasRemaining()) {
+            Value[] row = new Value[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                byte indicator = in.read();
+                switch (indicator) {
+                case INDICATOR_NONE:
+                    row[i] = ExecutePacket.getValue(in, types[i], cs);
+                    break;
+                case INDICATOR_NULL:
+                    row[i] = ValueNull.INSTANCE;
+                    break;
+                default:
+                    // DEFAULT和IGNORE需要知道参数对应的列，目前还不支持
+                    throw DbException.getUnsupportedException("bulk parameter indicator " + indicator);
+                }
+            }
+            rows.add(row);
+        }
+    }
+}
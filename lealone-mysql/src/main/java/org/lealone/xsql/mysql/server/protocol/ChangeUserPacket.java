@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import org.lealone.xsql.mysql.server.util.Capabilities;
+
+/**
+ * From client to server. Changes the user of the current connection.
+ *
+ * <pre>
+ * Bytes                        Name
+ * -----                        ----
+ * 1                            command, always 0x11
+ * n (Null-Terminated String)   user
+ * n                            auth_response, 1 byte length + data if CLIENT_SECURE_CONNECTION,
+ *                              otherwise Null-Terminated String
+ * n (Null-Terminated String)   databasename
+ * 2                            charset_number (optional)
+ * n (Null-Terminated String)   auth_plugin_name (optional, if CLIENT_PLUGIN_AUTH)
+ *
+ * @see https://dev.mysql.com/doc/dev/mysql-server/latest/page_protocol_com_change_user.html
+ * </pre>
+ */
+public class ChangeUserPacket extends RequestPacket {
+
+    public String user;
+    public byte[] password;
+    public String database;
+    public int charsetIndex;
+    public String authPluginName;
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Change User Packet";
+    }
+
+    public void read(PacketInput in, long clientFlags) {
+        super.read(in);
+        in.position(5);
+        user = in.readStringWithNull();
+        if ((clientFlags & Capabilities.CLIENT_SECURE_CONNECTION) != 0) {
+            int len = in.read() & 0xff;
+            password = in.readBytes(len);
+        } else {
+            password = in.readBytesWithNull();
+        }
+        database = in.readStringWithNull();
+        if (in.hasRemaining()) {
+            charsetIndex = in.readUB2();
+        }
+        if (((clientFlags & Capabilities.CLIENT_PLUGIN_AUTH) != 0) && in.hasRemaining()) {
+            authPluginName = in.readStringWithNull();
+        }
+    }
+
+    // 转成握手响应包，这样可以跟建立连接时走同样的认证过程
+    public AuthPacket toAuthPacket(long clientFlags) {
+        AuthPacket p = new AuthPacket();
+        p.packetId = packetId;
+        p.clientFlags = clientFlags;
+        p.charsetIndex = charsetIndex;
+        p.user = user;
+        p.password = password;
+        p.database = database;
+        p.authPluginName = authPluginName;
+        return p;
+    }
+}
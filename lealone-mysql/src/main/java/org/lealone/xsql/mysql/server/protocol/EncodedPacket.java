@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 已经编码好的包体，比如从RowSpool中读出来的行数据包，写出时只需要加上包头。
+ */
+public class EncodedPacket extends ResponsePacket {
+
+    private final byte[] body;
+
+    public EncodedPacket(byte[] body) {
+        this.body = body;
+    }
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Encoded Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return body.length;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        out.writeToBuffer(body, buffer);
+    }
+}
@@ -16,6 +16,8 @@
 package org.lealone.xsql.mysql.server.protocol;
 
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.lealone.db.CommandParameter;
@@ -90,6 +92,11 @@ import org.lealone.sql.PreparedSQLStatement;
  */
 public class ExecutePacket extends RequestPacket {
 
+    public static final byte CURSOR_TYPE_NO_CURSOR = 0;
+    public static final byte CURSOR_TYPE_READ_ONLY = 1;
+    public static final byte CURSOR_TYPE_FOR_UPDATE = 2;
+    public static final byte CURSOR_TYPE_SCROLLABLE = 4;
+
     public byte code;
     public long statementId;
     public byte flags;
@@ -104,6 +111,13 @@ public class ExecutePacket extends RequestPacket {
     }
 
     public void read(PacketInput in, String charset, ServerSession session) {
+        read(in, charset, session, null);
+    }
+
+    /**
+     * @param bound 语句在连接中的参数状态，没有使用预处理语句缓存时可以为null
+     */
+    public void read(PacketInput in, String charset, ServerSession session, BoundParameters bound) {
         super.read(in);
         code = in.read();
         statementId = in.readUB4();
@@ -113,7 +127,6 @@ public class ExecutePacket extends RequestPacket {
         PreparedSQLStatement stmt = (PreparedSQLStatement) session.getCache((int) statementId);
         List<? extends CommandParameter> params = stmt.getParameters();
         int parameterCount = params.size();
-        types = new int[parameterCount];
 
         // 读取NULL指示器数据
         nullBitMap = new byte[(parameterCount + 7) / 8];
@@ -121,35 +134,58 @@ public class ExecutePacket extends RequestPacket {
             nullBitMap[i] = in.read();
         }
 
-        // 当newParameterBoundFlag==1时，更新参数类型。
+        // 当newParameterBoundFlag==1时，更新参数类型，否则沿用上一次绑定的参数类型。
         newParameterBoundFlag = in.read();
         if (newParameterBoundFlag == (byte) 1) {
+            types = new int[parameterCount];
             for (int i = 0; i < parameterCount; i++) {
                 types[i] = in.readUB2();
             }
+            if (bound != null)
+                bound.setTypes(types);
+        } else if (bound != null && bound.getTypes() != null) {
+            types = bound.getTypes();
+        } else {
+            types = new int[parameterCount];
         }
 
-        // 设置参数类型和读取参数值
+        // 设置参数类型和读取参数值，通过COM_STMT_SEND_LONG_DATA发送过的参数不会再出现在包中
+        Charset cs = charset == null ? StandardCharsets.UTF_8 : PacketInput.getCharset(charset);
         byte[] nullBitMap = this.nullBitMap;
-        for (int i = 0; i < parameterCount; i++) {
-            CommandParameter p = params.get(i);
-            if ((nullBitMap[i / 8] & (1 << (i & 7))) != 0) {
-                p.setValue(ValueNull.INSTANCE);
-            } else {
-                p.setValue(getValue(in, types[i], charset));
+        try {
+            for (int i = 0; i < parameterCount; i++) {
+                CommandParameter p = params.get(i);
+                LongDataBuffer longData = bound != null ? bound.getLongData(i) : null;
+                if (longData != null) {
+                    p.setValue(longData.getValue(types[i], cs, session));
+                } else if ((nullBitMap[i / 8] & (1 << (i & 7))) != 0) {
+                    p.setValue(ValueNull.INSTANCE);
+                } else {
+                    p.setValue(getValue(in, types[i], cs));
+                }
             }
+        } finally {
+            if (bound != null)
+                bound.clearLongData();
         }
     }
 
-    private static Value getValue(PacketInput in, int type, String charset) {
+    static Value getValue(PacketInput in, int type, Charset charset) {
         switch (type & 0xff) {
         case Fields.FIELD_TYPE_BIT:
+        case Fields.FIELD_TYPE_TINY_BLOB:
+        case Fields.FIELD_TYPE_MEDIUM_BLOB:
+        case Fields.FIELD_TYPE_LONG_BLOB:
+        case Fields.FIELD_TYPE_BLOB:
+        case Fields.FIELD_TYPE_GEOMETRY:
             return ValueBytes.get(in.readBytesWithLength());
         case Fields.FIELD_TYPE_TINY:
             return ValueByte.get(in.read());
         case Fields.FIELD_TYPE_SHORT:
+        case Fields.FIELD_TYPE_YEAR:
             return ValueShort.get((short) in.readUB2());
         case Fields.FIELD_TYPE_LONG:
+        case Fields.FIELD_TYPE_INT24:
             return ValueInt.get(in.readInt());
         case Fields.FIELD_TYPE_LONGLONG:
             return ValueLong.get(in.readLong());
@@ -160,6 +196,7 @@ public class ExecutePacket extends RequestPacket {
         case Fields.FIELD_TYPE_TIME:
             return ValueTime.get(in.readTime());
         case Fields.FIELD_TYPE_DATE:
+        case Fields.FIELD_TYPE_NEWDATE:
         case Fields.FIELD_TYPE_DATETIME:
         case Fields.FIELD_TYPE_TIMESTAMP: {
             Object value = in.readDate();
@@ -171,13 +208,18 @@ public class ExecutePacket extends RequestPacket {
         }
         case Fields.FIELD_TYPE_VAR_STRING:
         case Fields.FIELD_TYPE_STRING:
-        case Fields.FIELD_TYPE_VARCHAR: {
+        case Fields.FIELD_TYPE_VARCHAR:
+        case Fields.FIELD_TYPE_ENUM:
+        case Fields.FIELD_TYPE_SET:
+        case Fields.FIELD_TYPE_JSON: {
             String value = in.readStringWithLength(charset);
             if (value == null) {
                 return ValueNull.INSTANCE;
             }
             return ValueString.get(value);
         }
+        case Fields.FIELD_TYPE_NULL:
+            return ValueNull.INSTANCE;
         case Fields.FIELD_TYPE_DECIMAL:
         case Fields.FIELD_TYPE_NEW_DECIMAL: {
             BigDecimal value = in.readBigDecimal();
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+/**
+ * <pre>
+ * Bytes                 Name
+ * -----                 ----
+ * 1                     code, always COM_STMT_FETCH
+ * 4                     statement_id
+ * 4                     num_rows
+ * 
+ * @see http://dev.mysql.com/doc/internals/en/com-stmt-fetch.html
+ * </pre>
+ */
+public class FetchPacket extends RequestPacket {
+
+    public byte code;
+    public long statementId;
+    public long numRows;
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Fetch Packet";
+    }
+
+    @Override
+    public void read(PacketInput in) {
+        super.read(in);
+        code = in.read();
+        statementId = in.readUB4();
+        numRows = in.readUB4();
+    }
+}
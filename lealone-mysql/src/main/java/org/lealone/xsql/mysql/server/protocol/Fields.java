@@ -44,6 +44,7 @@ public interface Fields {
     int FIELD_TYPE_NEWDATE = 14;
     int FIELD_TYPE_VARCHAR = 15;
     int FIELD_TYPE_BIT = 16;
+    int FIELD_TYPE_JSON = 245;
     int FIELD_TYPE_NEW_DECIMAL = 246;
     int FIELD_TYPE_ENUM = 247;
     int FIELD_TYPE_SET = 248;
@@ -48,8 +48,7 @@ import org.lealone.xsql.mysql.server.util.RandomUtil;
  */
 public class HandshakePacket extends ResponsePacket {
 
-    private static final byte[] FILLER_10 = new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    private static final byte[] mysql_native_password = "mysql_native_password".getBytes();
+    private static final byte[] FILLER_6 = new byte[] { 0, 0, 0, 0, 0, 0 };
 
     public final byte[] authPluginDataPart2 = RandomUtil.randomBytes(12);
 
@@ -61,6 +60,9 @@ public class HandshakePacket extends ResponsePacket {
     public byte serverCharsetIndex;
     public int serverStatus;
     public byte[] restOfScrambleBuff;
+    public byte[] authPluginName;
+    // 为true时按MariaDB服务器的方式握手，客户端才会读取扩展能力标志
+    public boolean mariaDbCapabilities;
 
     @Override
     public String getPacketInfo() {
@@ -78,7 +80,7 @@ public class HandshakePacket extends ResponsePacket {
         size += 1; // 1
 
         size += authPluginDataPart2.length + 1;
-        size += mysql_native_password.length + 1;
+        size += authPluginName.length + 1;
         return size;
     }
 
@@ -91,15 +93,17 @@ public class HandshakePacket extends ResponsePacket {
         BufferUtil.writeUB2(buffer, serverCapabilities);
         buffer.put(serverCharsetIndex);
         BufferUtil.writeUB2(buffer, serverStatus);
-        BufferUtil.writeUB2(buffer, Capabilities.CLIENT_PLUGIN_AUTH >> 16);
+        BufferUtil.writeUB2(buffer, serverCapabilities >>> 16);
         buffer.put((byte) (20 + 1));
-        buffer.put(FILLER_10);
+        buffer.put(FILLER_6);
+        BufferUtil.writeUB4(buffer, mariaDbCapabilities ? getExtendedServerCapabilities() : 0);
         BufferUtil.writeWithNull(buffer, authPluginDataPart2);
-        BufferUtil.writeWithNull(buffer, mysql_native_password);
+        BufferUtil.writeWithNull(buffer, authPluginName);
         BufferUtil.writeWithNull(buffer, restOfScrambleBuff);
     }
 
-    public static HandshakePacket create(int threadId) {
+    public static HandshakePacket create(int threadId, String authPluginName,
+            boolean mariaDbCapabilities) {
         // 生成认证数据
         byte[] rand1 = RandomUtil.randomBytes(8);
         byte[] rand2 = RandomUtil.randomBytes(12);
@@ -111,10 +115,12 @@ public class HandshakePacket extends ResponsePacket {
         hs.serverVersion = SERVER_VERSION;
         hs.threadId = threadId;
         hs.seed = rand1;
-        hs.serverCapabilities = getServerCapabilities();
+        hs.serverCapabilities = getServerCapabilities(mariaDbCapabilities);
+        hs.mariaDbCapabilities = mariaDbCapabilities;
         hs.serverCharsetIndex = (byte) (CharsetUtil.getIndex("utf8") & 0xff);
         hs.serverStatus = 2;
         hs.restOfScrambleBuff = rand2;
+        hs.authPluginName = authPluginName.getBytes();
         return hs;
     }
 
@@ -125,16 +131,18 @@ public class HandshakePacket extends ResponsePacket {
     private static byte[] SERVER_VERSION = ("5.1.48-" + //
             Constants.PROJECT_NAME + "-" + Constants.RELEASE_VERSION).getBytes();
 
-    private static int getServerCapabilities() {
+    private static int getServerCapabilities(boolean mariaDbCapabilities) {
         int flag = 0;
-        flag |= Capabilities.CLIENT_LONG_PASSWORD;
+        // MariaDB的客户端把这一位当成CLIENT_MYSQL，没有设置时才认为是MariaDB服务器并读取扩展能力标志
+        if (!mariaDbCapabilities)
+            flag |= Capabilities.CLIENT_LONG_PASSWORD;
         flag |= Capabilities.CLIENT_FOUND_ROWS;
         flag |= Capabilities.CLIENT_LONG_FLAG;
         flag |= Capabilities.CLIENT_CONNECT_WITH_DB;
         // flag |= Capabilities.CLIENT_NO_SCHEMA;
-        // flag |= Capabilities.CLIENT_COMPRESS;
+        flag |= Capabilities.CLIENT_COMPRESS;
         flag |= Capabilities.CLIENT_ODBC;
-        // flag |= Capabilities.CLIENT_LOCAL_FILES;
+        flag |= Capabilities.CLIENT_LOCAL_FILES;
         flag |= Capabilities.CLIENT_IGNORE_SPACE;
         flag |= Capabilities.CLIENT_PROTOCOL_41;
         flag |= Capabilities.CLIENT_INTERACTIVE;
@@ -143,6 +151,16 @@ public class HandshakePacket extends ResponsePacket {
         flag |= Capabilities.CLIENT_TRANSACTIONS;
         // flag |= ServerDefs.CLIENT_RESERVED;
         flag |= Capabilities.CLIENT_SECURE_CONNECTION;
+        flag |= Capabilities.CLIENT_MULTI_STATEMENTS;
+        flag |= Capabilities.CLIENT_MULTI_RESULTS;
+        flag |= Capabilities.CLIENT_PLUGIN_AUTH;
+        flag |= Capabilities.CLIENT_DEPRECATE_EOF;
+        flag |= Capabilities.CLIENT_OPTIONAL_RESULTSET_METADATA;
         return flag;
     }
+
+    private static int getExtendedServerCapabilities() {
+        long flag = Capabilities.MARIADB_CLIENT_STMT_BULK_OPERATIONS;
+        return (int) (flag >>> 32);
+    }
 }
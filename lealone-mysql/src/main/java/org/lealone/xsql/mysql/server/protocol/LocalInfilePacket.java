@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * From server to client, LOAD DATA LOCAL INFILE时让客户端发送文件的内容。
+ * 客户端接着发送若干个文件内容的包，最后用一个空包表示文件结束。
+ *
+ * <pre>
+ * Bytes                 Name
+ * -----                 ----
+ * 1                     header, always = 0xfb
+ * n                     filename (string.EOF)
+ *
+ * @see https://dev.mysql.com/doc/dev/mysql-server/latest/page_protocol_com_query_response_local_infile_request.html
+ * </pre>
+ */
+public class LocalInfilePacket extends ResponsePacket {
+
+    public static final byte HEADER = (byte) 0xfb;
+
+    public byte[] fileName;
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Local Infile Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return 1 + fileName.length;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        buffer.put(HEADER);
+        buffer.put(fileName);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueBytes;
+import org.lealone.db.value.ValueString;
+
+/**
+ * 存放通过COM_STMT_SEND_LONG_DATA分多次发送的一个参数值。
+ *
+ * 数据不超过MAX_MEMORY_SIZE时放在内存中，超过后转存到临时文件，
+ * 执行语句时再从临时文件以流的方式生成LOB，这样就不需要把整个值放到一个数组中。
+ */
+public class LongDataBuffer {
+
+    public static final int MAX_MEMORY_SIZE = 1024 * 1024;
+
+    private byte[] buffer = new byte[256];
+    private long length;
+    private File file;
+    private OutputStream fileOut;
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 把COM_STMT_SEND_LONG_DATA包中剩下的数据追加到缓冲区
+     */
+    public void append(PacketInput in) {
+        int len = in.length() - in.position();
+        if (len <= 0)
+            return;
+        try {
+            if (fileOut == null && length + len > MAX_MEMORY_SIZE) {
+                file = File.createTempFile("lealone-mysql-long-data-", ".tmp");
+                fileOut = new BufferedOutputStream(new FileOutputStream(file));
+                fileOut.write(buffer, 0, (int) length);
+                buffer = null;
+            }
+            if (fileOut != null) {
+                in.readBytes(fileOut);
+            } else {
+                int size = (int) length;
+                if (size + len > buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.max(size + len, buffer.length * 2));
+                in.readBytes(buffer, size, len);
+            }
+            length += len;
+        } catch (IOException e) {
+            close();
+            throw DbException.convertIOException(e, null);
+        }
+    }
+
+    /**
+     * 按参数类型生成参数值，值生成之后缓冲区就不能再使用了
+     */
+    public Value getValue(int type, Charset charset, ServerSession session) {
+        try {
+            if (fileOut == null) {
+                if (isBinary(type))
+                    return ValueBytes.get(Arrays.copyOf(buffer, (int) length));
+                else
+                    return ValueString.get(new String(buffer, 0, (int) length, charset));
+            }
+            fileOut.close();
+            fileOut = null;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                if (isBinary(type))
+                    return session.getDataHandler().getLobStorage().createBlob(in, -1);
+                else
+                    return session.getDataHandler().getLobStorage()
+                            .createClob(new InputStreamReader(in, charset), -1);
+            }
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        buffer = null;
+        length = 0;
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            fileOut = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    private static boolean isBinary(int type) {
+        switch (type & 0xff) {
+        case Fields.FIELD_TYPE_BIT:
+        case Fields.FIELD_TYPE_TINY_BLOB:
+        case Fields.FIELD_TYPE_MEDIUM_BLOB:
+        case Fields.FIELD_TYPE_LONG_BLOB:
+        case Fields.FIELD_TYPE_BLOB:
+        case Fields.FIELD_TYPE_GEOMETRY:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
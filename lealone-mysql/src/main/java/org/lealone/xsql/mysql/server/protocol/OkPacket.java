@@ -40,6 +40,9 @@ import org.lealone.xsql.mysql.server.util.BufferUtil;
  */
 public class OkPacket extends ResponsePacket {
 
+    // 协商了CLIENT_DEPRECATE_EOF时，用这个值作为OK包的第一个字节来代替结果集末尾的EOF包
+    public static final byte EOF_HEADER = (byte) 0xfe;
+
     public byte fieldCount = 0x00;
     public long affectedRows;
     public long insertId;
@@ -15,16 +15,26 @@
  */
 package org.lealone.xsql.mysql.server.protocol;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.sql.Time;
 import java.sql.Timestamp;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.lealone.common.exceptions.DbException;
 
 /**
+ * 直接从网络缓冲区中读取包的内容，不需要把包复制到一个新的数组中。
+ * 位置从包头开始算，0-2是包体长度，3是包的序号，4是包体的第一个字节。
+ *
  * @author xianmao.hexm
  * @author zhh
  */
@@ -33,18 +43,54 @@ public class PacketInput {
     private static final long NULL_LENGTH = -1;
     private static final byte[] EMPTY_BYTES = new byte[0];
 
-    private final byte[] b;
+    private final ByteBuffer body;
+    private final int bodyStart;
+    private final byte packetId;
     private final int length;
     private int position;
+    // 由多个包合并而成时，第一个包之后的包的个数
+    private final int continuationPackets;
 
-    public PacketInput(byte[] b) {
-        this.b = b;
-        this.length = b.length;
+    /**
+     * @param packet 包含包头的完整的包
+     */
+    public PacketInput(byte[] packet) {
+        this(packet, 0);
+    }
+
+    public PacketInput(byte[] packet, int continuationPackets) {
+        this(ByteBuffer.wrap(packet, 4, packet.length - 4), packet[3], continuationPackets);
+    }
+
+    /**
+     * @param body 包体，从body的当前位置开始到limit结束，读取时不会改变body的位置
+     */
+    public PacketInput(ByteBuffer body, byte packetId, int continuationPackets) {
+        this.body = body;
+        this.bodyStart = body.position();
+        this.packetId = packetId;
+        this.length = 4 + body.remaining();
         this.position = 0;
+        this.continuationPackets = continuationPackets;
+    }
+
+    /**
+     * 复制包体，用于包需要在网络缓冲区回收之后才处理的情况
+     */
+    public PacketInput copy() {
+        byte[] b = new byte[length - 4];
+        get(4, b, 0, b.length);
+        PacketInput in = new PacketInput(ByteBuffer.wrap(b), packetId, continuationPackets);
+        in.position = position;
+        return in;
+    }
+
+    public int getContinuationPackets() {
+        return continuationPackets;
     }
 
     public int type() {
-        return b[4];
+        return get(4);
     }
 
     public int length() {
@@ -55,10 +101,6 @@ public class PacketInput {
         return position;
     }
 
-    public byte[] bytes() {
-        return b;
-    }
-
     public void move(int i) {
         position += i;
     }
@@ -72,39 +114,39 @@ public class PacketInput {
     }
 
     public byte read(int i) {
-        return b[i];
+        return get(i);
     }
 
     public byte read() {
-        return b[position++];
+        return get(position++);
     }
 
     public int readUB2() {
-        int i = b[position++] & 0xff;
-        i |= (b[position++] & 0xff) << 8;
+        int i = read() & 0xff;
+        i |= (read() & 0xff) << 8;
         return i;
     }
 
     public int readUB3() {
-        int i = b[position++] & 0xff;
-        i |= (b[position++] & 0xff) << 8;
-        i |= (b[position++] & 0xff) << 16;
+        int i = read() & 0xff;
+        i |= (read() & 0xff) << 8;
+        i |= (read() & 0xff) << 16;
         return i;
     }
 
     public long readUB4() {
-        long l = b[position++] & 0xff;
-        l |= (long) (b[position++] & 0xff) << 8;
-        l |= (long) (b[position++] & 0xff) << 16;
-        l |= (long) (b[position++] & 0xff) << 24;
+        long l = read() & 0xff;
+        l |= (long) (read() & 0xff) << 8;
+        l |= (long) (read() & 0xff) << 16;
+        l |= (long) (read() & 0xff) << 24;
         return l;
     }
 
     public int readInt() {
-        int i = b[position++] & 0xff;
-        i |= (b[position++] & 0xff) << 8;
-        i |= (b[position++] & 0xff) << 16;
-        i |= (b[position++] & 0xff) << 24;
+        int i = read() & 0xff;
+        i |= (read() & 0xff) << 8;
+        i |= (read() & 0xff) << 16;
+        i |= (read() & 0xff) << 24;
         return i;
     }
 
@@ -113,14 +155,14 @@ public class PacketInput {
     }
 
     public long readLong() {
-        long l = b[position++] & 0xff;
-        l |= (long) (b[position++] & 0xff) << 8;
-        l |= (long) (b[position++] & 0xff) << 16;
-        l |= (long) (b[position++] & 0xff) << 24;
-        l |= (long) (b[position++] & 0xff) << 32;
-        l |= (long) (b[position++] & 0xff) << 40;
-        l |= (long) (b[position++] & 0xff) << 48;
-        l |= (long) (b[position++] & 0xff) << 56;
+        long l = read() & 0xff;
+        l |= (long) (read() & 0xff) << 8;
+        l |= (long) (read() & 0xff) << 16;
+        l |= (long) (read() & 0xff) << 24;
+        l |= (long) (read() & 0xff) << 32;
+        l |= (long) (read() & 0xff) << 40;
+        l |= (long) (read() & 0xff) << 48;
+        l |= (long) (read() & 0xff) << 56;
         return l;
     }
 
@@ -129,7 +171,7 @@ public class PacketInput {
     }
 
     public long readLength() {
-        int length = b[position++] & 0xff;
+        int length = read() & 0xff;
         switch (length) {
         case 251:
             return NULL_LENGTH;
@@ -148,44 +190,57 @@ public class PacketInput {
         if (position >= length) {
             return EMPTY_BYTES;
         }
-        byte[] ab = new byte[length - position];
-        System.arraycopy(b, position, ab, 0, ab.length);
-        position = length;
-        return ab;
+        return readBytes(length - position);
     }
 
     public byte[] readBytes(int length) {
         byte[] ab = new byte[length];
-        System.arraycopy(b, position, ab, 0, length);
+        get(position, ab, 0, length);
         position += length;
         return ab;
     }
 
+    public void readBytes(byte[] dst, int offset, int length) {
+        get(position, dst, offset, length);
+        position += length;
+    }
+
+    /**
+     * 把剩下的数据直接写到输出流，不需要先复制到一个新的数组中
+     */
+    public void readBytes(OutputStream out) throws IOException {
+        int len = length - position;
+        if (len <= 0)
+            return;
+        if (body.hasArray()) {
+            out.write(body.array(), body.arrayOffset() + bodyStart + position - 4, len);
+        } else {
+            byte[] buff = new byte[Math.min(len, 8192)];
+            for (int n = len; n > 0;) {
+                int size = Math.min(n, buff.length);
+                get(length - n, buff, 0, size);
+                out.write(buff, 0, size);
+                n -= size;
+            }
+        }
+        position = length;
+    }
+
     public byte[] readBytesWithNull() {
         if (position >= length) {
             return EMPTY_BYTES;
         }
-        int offset = -1;
-        for (int i = position; i < length; i++) {
-            if (b[i] == 0) {
-                offset = i;
-                break;
-            }
-        }
+        int offset = indexOfNull();
         switch (offset) {
         case -1:
-            byte[] ab1 = new byte[length - position];
-            System.arraycopy(b, position, ab1, 0, ab1.length);
-            position = length;
-            return ab1;
+            return readBytes(length - position);
         case 0:
             position++;
             return EMPTY_BYTES;
         default:
-            byte[] ab2 = new byte[offset - position];
-            System.arraycopy(b, position, ab2, 0, ab2.length);
+            byte[] ab = readBytes(offset - position);
             position = offset + 1;
-            return ab2;
+            return ab;
         }
     }
 
@@ -194,48 +249,46 @@ public class PacketInput {
         if (length <= 0) {
             return EMPTY_BYTES;
         }
-        byte[] ab = new byte[length];
-        System.arraycopy(b, position, ab, 0, ab.length);
-        position += length;
-        return ab;
+        return readBytes(length);
     }
 
     public String readString() {
-        if (position >= length) {
-            return null;
-        }
-        String s = new String(b, position, length - position);
-        position = length;
-        return s;
+        return readString(Charset.defaultCharset());
     }
 
     public String readString(String charset) {
+        return readString(getCharset(charset));
+    }
+
+    public String readString(Charset charset) {
         if (position >= length) {
             return null;
         }
-        String s = newString(b, position, length - position, charset);
+        String s = decode(position, length - position, charset);
         position = length;
         return s;
     }
 
     public String readStringWithNull() {
+        return readStringWithNull(Charset.defaultCharset());
+    }
+
+    public String readStringWithNull(String charset) {
+        return readStringWithNull(getCharset(charset));
+    }
+
+    public String readStringWithNull(Charset charset) {
         if (position >= length) {
             return null;
         }
-        int offset = -1;
-        for (int i = position; i < length; i++) {
-            if (b[i] == 0) {
-                offset = i;
-                break;
-            }
-        }
+        int offset = indexOfNull();
         if (offset == -1) {
-            String s = new String(b, position, length - position);
+            String s = decode(position, length - position, charset);
             position = length;
             return s;
         }
         if (offset > position) {
-            String s = new String(b, position, offset - position);
+            String s = decode(position, offset - position, charset);
             position = offset + 1;
             return s;
         } else {
@@ -244,48 +297,20 @@ public class PacketInput {
         }
     }
 
-    public String readStringWithNull(String charset) {
-        if (position >= length) {
-            return null;
-        }
-        int offset = -1;
-        for (int i = position; i < length; i++) {
-            if (b[i] == 0) {
-                offset = i;
-                break;
-            }
-        }
-        switch (offset) {
-        case -1:
-            String s1 = newString(b, position, length - position, charset);
-            position = length;
-            return s1;
-        case 0:
-            position++;
-            return null;
-        default:
-            String s2 = newString(b, position, offset - position, charset);
-            position = offset + 1;
-            return s2;
-        }
-    }
-
     public String readStringWithLength() {
-        int length = (int) readLength();
-        if (length <= 0) {
-            return null;
-        }
-        String s = new String(b, position, length);
-        position += length;
-        return s;
+        return readStringWithLength(Charset.defaultCharset());
     }
 
     public String readStringWithLength(String charset) {
+        return readStringWithLength(getCharset(charset));
+    }
+
+    public String readStringWithLength(Charset charset) {
         int length = (int) readLength();
         if (length <= 0) {
             return null;
         }
-        String s = newString(b, position, length, charset);
+        String s = decode(position, length, charset);
         position += length;
         return s;
     }
@@ -329,17 +354,86 @@ public class PacketInput {
 
     @Override
     public String toString() {
-        return Arrays.toString(b);
+        StringBuilder buff = new StringBuilder("[");
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                buff.append(", ");
+            buff.append(get(i));
+        }
+        return buff.append(']').toString();
+    }
+
+    private byte get(int i) {
+        if (i >= 4)
+            return body.get(bodyStart + i - 4);
+        if (i == 3)
+            return packetId;
+        return (byte) ((length - 4) >>> (i * 8)); // 包体长度
+    }
+
+    private void get(int i, byte[] dst, int offset, int length) {
+        if (body.hasArray()) {
+            System.arraycopy(body.array(), body.arrayOffset() + bodyStart + i - 4, dst, offset, length);
+        } else {
+            for (int j = 0; j < length; j++)
+                dst[offset + j] = get(i + j);
+        }
+    }
+
+    private int indexOfNull() {
+        for (int i = position; i < length; i++) {
+            if (get(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    private static String newString(byte[] bytes, int offset, int length, String charsetName) {
+    private String decode(int i, int length, Charset charset) {
+        if (body.hasArray()) {
+            return new String(body.array(), body.arrayOffset() + bodyStart + i - 4, length, charset);
+        }
+        ByteBuffer bb = body.duplicate();
+        bb.position(bodyStart + i - 4);
+        bb.limit(bodyStart + i - 4 + length);
+        CharsetDecoder decoder = getDecoder(charset);
         try {
-            return new String(bytes, offset, length, charsetName);
-        } catch (UnsupportedEncodingException e) {
+            CharBuffer cb = decoder.reset().decode(bb);
+            return cb.toString();
+        } catch (CharacterCodingException e) {
             throw DbException.convert(e);
         }
     }
 
+    private static final ConcurrentHashMap<String, Charset> charsets = new ConcurrentHashMap<>();
+
+    static Charset getCharset(String charsetName) {
+        Charset charset = charsets.get(charsetName);
+        if (charset == null) {
+            charset = Charset.forName(charsetName);
+            charsets.put(charsetName, charset);
+        }
+        return charset;
+    }
+
+    // 每个线程为每种编码缓存一个解码器，因为CharsetDecoder不是线程安全的
+    private static final ThreadLocal<CharsetDecoder[]> localDecoder = new ThreadLocal<>();
+
+    private static CharsetDecoder getDecoder(Charset charset) {
+        CharsetDecoder[] decoders = localDecoder.get();
+        if (decoders == null) {
+            decoders = new CharsetDecoder[1];
+            localDecoder.set(decoders);
+        }
+        CharsetDecoder decoder = decoders[0];
+        if (decoder == null || decoder.charset() != charset) {
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders[0] = decoder;
+        }
+        return decoder;
+    }
+
     private static final ThreadLocal<Calendar> localCalendar = new ThreadLocal<Calendar>();
 
     private static final Calendar getLocalCalendar() {
@@ -18,18 +18,56 @@
 package org.lealone.xsql.mysql.server.protocol;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.db.DataBufferFactory;
+import org.lealone.net.NetBuffer;
 import org.lealone.net.WritableChannel;
+import org.lealone.xsql.mysql.server.util.BufferUtil;
 
 public class PacketOutput {
 
+    // 一个包的包体最大长度，超过时拆成多个包
+    public static final int MAX_PACKET_SIZE = 0xFFFFFF;
+
     private static final int BUFFER_SIZE = 8 * 1024;
 
+    // 多个包会合并到同一个大缓冲区中，缓冲区写满时才写到通道，
+    // 其他情况下等到整个响应写完后再调用flush一次性写出
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    // 已经交给通道但还没有写到socket的字节数超过高水位时暂停产生记录，降到低水位以下时再继续
+    private static final int HIGH_WATER_MARK = 1024 * 1024;
+    private static final int LOW_WATER_MARK = 256 * 1024;
+
     private final WritableChannel writableChannel;
     private final DataBufferFactory dataBufferFactory;
     private DataBuffer dataBuffer;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicReference<Runnable> drainHandler = new AtomicReference<>();
+    private volatile boolean closed;
+
+    // 客户端的请求由多个包组成时，响应包的序号要从请求的最后一个包的序号加1开始
+    private int packetIdOffset;
+    private byte lastPacketId;
+
+    // 正在写的超大包，写到通道前要在包体中每隔MAX_PACKET_SIZE个字节插入一个新的包头
+    private int largePacketRemaining = -1; // 包体中还没有处理的字节数，-1表示当前没有超大包
+    private int fragmentLength; // 当前这个包的包体长度
+    private int fragmentRemaining; // 当前这个包的包体中还没有处理的字节数
+    private byte largePacketId;
+    private int largePacketCount;
+    private boolean largePacketHeader; // 当前缓冲区是否以第一个包的包头开始
+
+    // 协商了CLIENT_COMPRESS后，写到通道的数据按压缩协议的格式分帧，为null时不压缩
+    private Deflater deflater;
+    private int compressThreshold;
+    private byte compressedPacketId;
+    private byte[] compressInput;
+    private byte[] compressOutput;
 
     public PacketOutput(WritableChannel writableChannel, DataBufferFactory dataBufferFactory) {
         this.writableChannel = writableChannel;
@@ -38,8 +76,13 @@ public class PacketOutput {
 
     public ByteBuffer allocate(int capacity) {
         capacity = Math.min(capacity, BUFFER_SIZE);
-        dataBuffer = dataBufferFactory.create(capacity);
-        return dataBuffer.getBuffer();
+        if (dataBuffer != null) {
+            ByteBuffer buffer = dataBuffer.getBuffer();
+            if (buffer.remaining() >= capacity)
+                return buffer;
+            writeBuffer();
+        }
+        return newBuffer();
     }
 
     public ByteBuffer writeToBuffer(byte[] src, ByteBuffer buffer) {
@@ -52,8 +95,8 @@ public class PacketOutput {
                 break;
             } else {
                 buffer.put(src, offset, remaining);
-                flush();
-                buffer = allocate(BUFFER_SIZE);
+                writeBuffer();
+                buffer = newBuffer();
                 offset += remaining;
                 length -= remaining;
                 remaining = buffer.remaining();
@@ -63,11 +106,290 @@ public class PacketOutput {
         return buffer;
     }
 
+    public void setPacketIdOffset(int packetIdOffset) {
+        this.packetIdOffset = packetIdOffset;
+    }
+
+    public int getPacketIdOffset() {
+        return packetIdOffset;
+    }
+
+    public byte getPacketId(byte packetId) {
+        lastPacketId = (byte) (packetId + packetIdOffset);
+        return lastPacketId;
+    }
+
+    /**
+     * 返回最后写入的包的序号
+     */
+    public byte getLastPacketId() {
+        return lastPacketId;
+    }
+
+    /**
+     * 写入已经编码好的包(包括包头)
+     */
+    public void write(byte[] packets) {
+        if (packetIdOffset != 0)
+            packets = packets.clone();
+        for (int i = 0; i < packets.length;) {
+            int length = (packets[i] & 0xff) | (packets[i + 1] & 0xff) << 8
+                    | (packets[i + 2] & 0xff) << 16;
+            packets[i + 3] = getPacketId(packets[i + 3]);
+            i += 4 + length;
+        }
+        ByteBuffer buffer = allocate(packets.length);
+        writeToBuffer(packets, buffer);
+    }
+
+    /**
+     * 确保buffer中至少还有n个字节可写，不够时把当前缓冲区写到通道并返回一个新的缓冲区
+     */
+    public ByteBuffer ensureRemaining(ByteBuffer buffer, int n) {
+        if (buffer.remaining() >= n)
+            return buffer;
+        writeBuffer();
+        return newBuffer();
+    }
+
+    /**
+     * 把当前响应中还没有写出的包一次性写到通道
+     */
     public void flush() {
         if (dataBuffer != null) {
-            dataBuffer.getAndFlipBuffer();
-            writableChannel.write(writableChannel.getBufferFactory().createBuffer(dataBuffer));
+            writeBuffer();
+        }
+    }
+
+    /**
+     * 开始写一个包体长度大于等于MAX_PACKET_SIZE的包，返回用来写包体的缓冲区，
+     * 包体在写到通道时才按MAX_PACKET_SIZE拆开，所以不需要一个完整的大数组
+     */
+    public ByteBuffer beginLargePacket(int size, byte packetId) {
+        // 超大包总是从一个新的缓冲区开始
+        if (dataBuffer != null)
+            writeBuffer();
+        ByteBuffer buffer = newBuffer();
+        BufferUtil.writeUB3(buffer, MAX_PACKET_SIZE);
+        buffer.put(packetId);
+        largePacketRemaining = size;
+        fragmentLength = MAX_PACKET_SIZE;
+        fragmentRemaining = MAX_PACKET_SIZE;
+        largePacketId = packetId;
+        largePacketCount = 0;
+        largePacketHeader = true;
+        return buffer;
+    }
+
+    /**
+     * 超大包写完后调用，返回额外增加的包的个数
+     */
+    public int endLargePacket() {
+        // 超大包的最后一个缓冲区中不能再放其他包
+        if (dataBuffer != null)
+            writeBuffer();
+        largePacketRemaining = -1;
+        lastPacketId = largePacketId;
+        return largePacketCount;
+    }
+
+    /**
+     * 启用压缩协议，长度小于compressThreshold的数据不压缩，直接放在压缩协议的帧中发送
+     */
+    public void enableCompression(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        deflater = new Deflater();
+    }
+
+    public boolean isCompressionEnabled() {
+        return deflater != null;
+    }
+
+    /**
+     * 压缩协议的帧有独立的序号，响应的第一帧的序号是客户端请求帧的序号加1
+     */
+    public void setCompressedPacketId(byte compressedPacketId) {
+        this.compressedPacketId = compressedPacketId;
+    }
+
+    public void close() {
+        closed = true;
+        // 关闭后通道中的数据不会再写出，积压的字节数清零，暂停的结果也不再继续
+        pendingBytes.set(0);
+        drainHandler.set(null);
+        if (dataBuffer != null) {
+            recycle(dataBuffer);
             dataBuffer = null;
         }
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private ByteBuffer newBuffer() {
+        dataBuffer = dataBufferFactory.create(MAX_BUFFER_SIZE);
+        return dataBuffer.getBuffer();
+    }
+
+    private void writeBuffer() {
+        DataBuffer old = dataBuffer;
+        // 写到通道后就不能再使用这个缓冲区了，后续的包总是写到新的缓冲区
+        dataBuffer = null;
+        if (old.getBuffer().position() == 0 || closed) {
+            recycle(old);
+            return;
+        }
+        old.getAndFlipBuffer();
+        if (largePacketRemaining >= 0)
+            old = splitLargePacket(old);
+        if (deflater != null)
+            old = compress(old);
+        PendingBuffer buffer = new PendingBuffer(old);
+        pendingBytes.addAndGet(buffer.length);
+        try {
+            writableChannel.write(buffer);
+        } catch (Throwable e) {
+            // 写失败时不会再有写完成的回调，积压的字节数要在这里减掉
+            buffer.onWritten();
+            throw e;
+        }
+    }
+
+    // 通道把数据全部写到socket后会回收NetBuffer，这时才算写完
+    private class PendingBuffer extends NetBuffer {
+
+        private final int length;
+        private boolean written;
+
+        PendingBuffer(DataBuffer dataBuffer) {
+            super(dataBuffer);
+            length = dataBuffer.getBuffer().remaining();
+        }
+
+        @Override
+        public void recycle() {
+            super.recycle();
+            onWritten();
+        }
+
+        synchronized void onWritten() {
+            if (!written) {
+                written = true;
+                // 关闭时已经清零了
+                if (!closed && pendingBytes.addAndGet(-length) < LOW_WATER_MARK)
+                    runDrainHandler();
+            }
+        }
+    }
+
+    // 数据已经复制到新的缓冲区后，原来的缓冲区通过NetBuffer回收到DataBufferFactory中
+    private static void recycle(DataBuffer buffer) {
+        new NetBuffer(buffer).recycle();
+    }
+
+    // 写完成的回调和setDrainHandler可能在不同的线程中同时调用，用getAndSet保证handler只被调用一次
+    private void runDrainHandler() {
+        Runnable handler = drainHandler.getAndSet(null);
+        if (handler != null)
+            handler.run();
+    }
+
+    /**
+     * 通道中还没有写出去的数据没有超过高水位时返回true，否则应该暂停产生新的包
+     */
+    public boolean isWritable() {
+        return pendingBytes.get() < HIGH_WATER_MARK;
+    }
+
+    /**
+     * 通道中的数据降到低水位以下时调用一次handler，如果已经在低水位以下就立刻调用
+     */
+    public void setDrainHandler(Runnable handler) {
+        drainHandler.set(handler);
+        // 注册之前数据可能已经写完了，这时不会再有写完成的回调，所以注册之后要再检查一次
+        if (pendingBytes.get() < LOW_WATER_MARK)
+            runDrainHandler();
+    }
+
+    private DataBuffer splitLargePacket(DataBuffer old) {
+        ByteBuffer src = old.getBuffer();
+        // 一个缓冲区的数据远小于MAX_PACKET_SIZE，最多再插入两个包头(最后可能是一个长度为0的包)
+        DataBuffer dst = dataBufferFactory.create(src.remaining() + 8);
+        ByteBuffer buffer = dst.getBuffer();
+        if (largePacketHeader) {
+            largePacketHeader = false;
+            for (int i = 0; i < 4; i++)
+                buffer.put(src.get());
+        }
+        while (true) {
+            int n = Math.min(src.remaining(), fragmentRemaining);
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            buffer.put(src);
+            src.limit(limit);
+            fragmentRemaining -= n;
+            largePacketRemaining -= n;
+            if (fragmentRemaining > 0)
+                break;
+            // 最后一个包的包体长度刚好是MAX_PACKET_SIZE时，还要再发一个长度为0的包
+            if (largePacketRemaining == 0 && fragmentLength < MAX_PACKET_SIZE)
+                break;
+            fragmentLength = Math.min(largePacketRemaining, MAX_PACKET_SIZE);
+            fragmentRemaining = fragmentLength;
+            BufferUtil.writeUB3(buffer, fragmentLength);
+            buffer.put(++largePacketId);
+            largePacketCount++;
+        }
+        recycle(old);
+        dst.getAndFlipBuffer();
+        return dst;
+    }
+
+    // 压缩协议的帧格式:
+    // 3个字节的压缩后长度 + 1个字节的序号 + 3个字节的压缩前长度(为0时表示没有压缩) + 数据
+    // 缓冲区最大只有MAX_BUFFER_SIZE，所以不会超过一帧的最大长度0xFFFFFF
+    private DataBuffer compress(DataBuffer old) {
+        ByteBuffer src = old.getBuffer();
+        int length = src.remaining();
+        if (compressInput == null || compressInput.length < length)
+            compressInput = new byte[length];
+        src.get(compressInput, 0, length);
+        recycle(old);
+
+        int compressedLength = 0;
+        if (length >= compressThreshold) {
+            if (compressOutput == null || compressOutput.length < length)
+                compressOutput = new byte[length];
+            deflater.reset();
+            deflater.setInput(compressInput, 0, length);
+            deflater.finish();
+            while (!deflater.finished() && compressedLength < length) {
+                compressedLength += deflater.deflate(compressOutput, compressedLength,
+                        compressOutput.length - compressedLength);
+            }
+            // 压缩后没有变小就直接发送原始数据
+            if (!deflater.finished() || compressedLength >= length)
+                compressedLength = 0;
+        }
+
+        DataBuffer dst;
+        if (compressedLength > 0) {
+            dst = dataBufferFactory.create(compressedLength + 7);
+            writeCompressedHeader(dst.getBuffer(), compressedLength, length);
+            dst.getBuffer().put(compressOutput, 0, compressedLength);
+        } else {
+            dst = dataBufferFactory.create(length + 7);
+            writeCompressedHeader(dst.getBuffer(), length, 0);
+            dst.getBuffer().put(compressInput, 0, length);
+        }
+        dst.getAndFlipBuffer();
+        return dst;
+    }
+
+    private void writeCompressedHeader(ByteBuffer buffer, int length, int uncompressedLength) {
+        BufferUtil.writeUB3(buffer, length);
+        buffer.put(compressedPacketId++);
+        BufferUtil.writeUB3(buffer, uncompressedLength);
     }
 }
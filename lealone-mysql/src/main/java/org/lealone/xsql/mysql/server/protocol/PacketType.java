@@ -166,6 +166,16 @@ public interface PacketType {
      */
     public static final byte COM_STMT_FETCH = 28;
 
+    /**
+     * mysql_reset_connection
+     */
+    public static final byte COM_RESET_CONNECTION = 31;
+
+    /**
+     * MariaDB的COM_STMT_BULK_EXECUTE，一个包中包含多组参数
+     */
+    public static final byte COM_STMT_BULK_EXECUTE = (byte) 0xfa;
+
     /**
      * cobar heartbeat
      */
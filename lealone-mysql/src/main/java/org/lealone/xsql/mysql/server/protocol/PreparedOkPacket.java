@@ -56,6 +56,8 @@ public class PreparedOkPacket extends ResponsePacket {
     public int parametersNumber;
     public byte filler;
     public int warningCount;
+    // 协商了CLIENT_OPTIONAL_RESULTSET_METADATA时才写，小于0时不写
+    public int metadataFollows = -1;
 
     public PreparedOkPacket() {
         this.status = 0;
@@ -69,7 +71,7 @@ public class PreparedOkPacket extends ResponsePacket {
 
     @Override
     public int calcPacketSize() {
-        return 12;
+        return metadataFollows >= 0 ? 13 : 12;
     }
 
     @Override
@@ -80,5 +82,8 @@ public class PreparedOkPacket extends ResponsePacket {
         BufferUtil.writeUB2(buffer, parametersNumber);
         buffer.put(filler);
         BufferUtil.writeUB2(buffer, warningCount);
+        if (metadataFollows >= 0) {
+            buffer.put((byte) metadataFollows);
+        }
     }
 }
@@ -33,13 +33,33 @@ public abstract class ResponsePacket extends Packet {
     @Override
     public void write(PacketOutput out) {
         int size = calcPacketSize();
+        if (size >= PacketOutput.MAX_PACKET_SIZE) {
+            writeLargePacket(out, size);
+            return;
+        }
         ByteBuffer buffer = out.allocate(4 + size); // PacketHeader占4个字节
 
         // write header
         BufferUtil.writeUB3(buffer, size);
-        buffer.put(packetId);
+        buffer.put(out.getPacketId(packetId));
 
         writeBody(buffer, out);
-        out.flush();
+    }
+
+    // 包体长度大于等于0xFFFFFF时要拆成多个包，写完后packetId是最后一个包的序号
+    private void writeLargePacket(PacketOutput out, int size) {
+        ByteBuffer buffer = out.beginLargePacket(size, out.getPacketId(packetId));
+        writeBody(buffer, out);
+        packetId += out.endLargePacket();
+    }
+
+    /**
+     * 把完整的包写到一个足够大的buffer中，用于预先编码那些需要重复发送的包，
+     * 只适用于writeBody中不需要PacketOutput的包。
+     */
+    public void write(ByteBuffer buffer) {
+        BufferUtil.writeUB3(buffer, calcPacketSize());
+        buffer.put(packetId);
+        writeBody(buffer, null);
     }
 }
@@ -45,8 +45,13 @@ import org.lealone.xsql.mysql.server.util.BufferUtil;
  */
 public class ResultSetHeaderPacket extends ResponsePacket {
 
+    public static final int RESULTSET_METADATA_NONE = 0;
+    public static final int RESULTSET_METADATA_FULL = 1;
+
     public int fieldCount;
     public long extra;
+    // 协商了CLIENT_OPTIONAL_RESULTSET_METADATA时才写，小于0时不写
+    public int metadataFollows = -1;
 
     @Override
     public String getPacketInfo() {
@@ -56,6 +61,9 @@ public class ResultSetHeaderPacket extends ResponsePacket {
     @Override
     public int calcPacketSize() {
         int size = BufferUtil.getLength(fieldCount);
+        if (metadataFollows >= 0) {
+            size += 1;
+        }
         if (extra > 0) {
             size += BufferUtil.getLength(extra);
         }
@@ -65,6 +73,9 @@ public class ResultSetHeaderPacket extends ResponsePacket {
     @Override
     public void writeBody(ByteBuffer buffer, PacketOutput out) {
         BufferUtil.writeLength(buffer, fieldCount);
+        if (metadataFollows >= 0) {
+            buffer.put((byte) metadataFollows);
+        }
         if (extra > 0) {
             BufferUtil.writeLength(buffer, extra);
         }
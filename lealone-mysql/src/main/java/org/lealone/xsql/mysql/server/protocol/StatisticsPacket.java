@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * From server to client in response to COM_STATISTICS, 只包含一个可读的字符串。
+ *
+ * <pre>
+ * Bytes                 Name
+ * -----                 ----
+ * n                     statistics (string.EOF)
+ *
+ * @see https://dev.mysql.com/doc/dev/mysql-server/latest/page_protocol_com_statistics.html
+ * </pre>
+ */
+public class StatisticsPacket extends ResponsePacket {
+
+    public byte[] message;
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Statistics Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        return message.length;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        buffer.put(message);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.protocol;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueDate;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueTime;
+import org.lealone.db.value.ValueTimestamp;
+import org.lealone.xsql.mysql.server.util.BufferUtil;
+
+/**
+ * 文本协议的行数据包，格式跟RowDataPacket一样，每个列值都是Length Coded String。
+ *
+ * 跟RowDataPacket不同的是，这里直接按值的类型把整数、日期时间和UTF-8字符串编码到输出缓冲区，
+ * 二进制数据直接写原始的字节，不需要为每个列值生成临时的String和byte[]，
+ * 并且同一个连接的所有行共用一个实例。
+ */
+public class TextRowDataPacket extends ResponsePacket {
+
+    private static final byte NULL_MARK = (byte) 251;
+    private static final int DATE_LENGTH = 10; // yyyy-MM-dd
+    private static final int TIME_LENGTH = 8; // HH:mm:ss
+    private static final int MAX_FORMATTED_LENGTH = 29; // yyyy-MM-dd HH:mm:ss.nnnnnnnnn
+    private static final long NANOS_PER_SECOND = 1000_000_000L;
+    private static final long MAX_TIME_NANOS = 100 * 3600 * NANOS_PER_SECOND; // 小时只有两位
+    // 绝对值小于它的整数值的DOUBLE按整数编码
+    private static final double MAX_INTEGRAL_DOUBLE = 1e15;
+
+    // 用来存放整数的十进制字符，从后往前写，最长是19位数字加1个负号
+    private final byte[] digits = new byte[20];
+    private int digitsStart;
+
+    private Value[] values;
+    private int fieldCount;
+    private int[] lengths = new int[0];
+    private String[] strings = new String[0];
+    private byte[][] bytes = new byte[0][];
+
+    public void setValues(Value[] values, int fieldCount) {
+        this.values = values;
+        this.fieldCount = fieldCount;
+        if (lengths.length < fieldCount) {
+            lengths = new int[fieldCount];
+            strings = new String[fieldCount];
+            bytes = new byte[fieldCount][];
+        }
+    }
+
+    @Override
+    public String getPacketInfo() {
+        return "MySQL Text RowData Packet";
+    }
+
+    @Override
+    public int calcPacketSize() {
+        int size = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            strings[i] = null;
+            Value v = values[i];
+            if (v == null || v == ValueNull.INSTANCE) {
+                size += 1;
+                continue;
+            }
+            int length;
+            switch (v.getType()) {
+            case Value.BOOLEAN:
+                length = 1;
+                break;
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+            case Value.LONG:
+                length = formatLong(v.getLong());
+                break;
+            case Value.DECIMAL: {
+                BigDecimal d = v.getBigDecimal();
+                if (d.scale() == 0 && d.precision() < 19) {
+                    length = formatLong(d.longValue());
+                } else {
+                    strings[i] = d.toPlainString();
+                    length = strings[i].length();
+                }
+                break;
+            }
+            case Value.DOUBLE:
+            case Value.FLOAT: {
+                double d = v.getDouble();
+                if (d == Math.rint(d) && Math.abs(d) < MAX_INTEGRAL_DOUBLE) {
+                    length = formatLong((long) d);
+                } else {
+                    strings[i] = v.getString();
+                    length = strings[i].length();
+                }
+                break;
+            }
+            case Value.BYTES:
+            case Value.BLOB:
+                bytes[i] = v.getBytesNoCopy();
+                length = bytes[i].length;
+                break;
+            case Value.DATE:
+                if (isFourDigitYear(((ValueDate) v).getDateValue())) {
+                    length = DATE_LENGTH;
+                    break;
+                }
+                // 超出范围的年份按字符串处理
+                strings[i] = v.getString();
+                length = getUtf8Length(strings[i]);
+                break;
+            case Value.TIMESTAMP: {
+                ValueTimestamp ts = (ValueTimestamp) v;
+                if (isFourDigitYear(ts.getDateValue())) {
+                    length = DATE_LENGTH + 1 + TIME_LENGTH + getFractionLength(ts.getTimeNanos());
+                    break;
+                }
+                strings[i] = v.getString();
+                length = getUtf8Length(strings[i]);
+                break;
+            }
+            case Value.TIME: {
+                long nanos = ((ValueTime) v).getNanos();
+                if (nanos >= 0 && nanos < MAX_TIME_NANOS) {
+                    length = TIME_LENGTH + getFractionLength(nanos);
+                    break;
+                }
+                strings[i] = v.getString();
+                length = getUtf8Length(strings[i]);
+                break;
+            }
+            default:
+                strings[i] = v.getString();
+                length = getUtf8Length(strings[i]);
+            }
+            lengths[i] = length;
+            size += BufferUtil.getLength(length) + length;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeBody(ByteBuffer buffer, PacketOutput out) {
+        for (int i = 0; i < fieldCount; i++) {
+            Value v = values[i];
+            buffer = out.ensureRemaining(buffer, 9);
+            if (v == null || v == ValueNull.INSTANCE) {
+                buffer.put(NULL_MARK);
+                continue;
+            }
+            int length = lengths[i];
+            BufferUtil.writeLength(buffer, length);
+            String s = strings[i];
+            if (s != null) {
+                buffer = writeUtf8(buffer, out, s);
+                continue;
+            }
+            byte[] b = bytes[i];
+            if (b != null) {
+                bytes[i] = null;
+                buffer = out.writeToBuffer(b, buffer);
+                continue;
+            }
+            buffer = out.ensureRemaining(buffer, MAX_FORMATTED_LENGTH);
+            switch (v.getType()) {
+            case Value.BOOLEAN:
+                buffer.put((byte) (v.getBoolean() ? '1' : '0'));
+                break;
+            case Value.DECIMAL:
+                formatLong(v.getBigDecimal().longValue());
+                buffer.put(digits, digitsStart, length);
+                break;
+            case Value.DOUBLE:
+            case Value.FLOAT:
+                formatLong((long) v.getDouble());
+                buffer.put(digits, digitsStart, length);
+                break;
+            case Value.DATE:
+                writeDate(buffer, ((ValueDate) v).getDateValue());
+                break;
+            case Value.TIMESTAMP: {
+                ValueTimestamp ts = (ValueTimestamp) v;
+                writeDate(buffer, ts.getDateValue());
+                buffer.put((byte) ' ');
+                writeTime(buffer, ts.getTimeNanos(), length - DATE_LENGTH - 1 - TIME_LENGTH);
+                break;
+            }
+            case Value.TIME:
+                writeTime(buffer, ((ValueTime) v).getNanos(), length - TIME_LENGTH);
+                break;
+            default:
+                formatLong(v.getLong());
+                buffer.put(digits, digitsStart, length);
+            }
+        }
+        values = null;
+    }
+
+    // 返回十进制字符的个数，字符放在digits[digitsStart, digits.length)中
+    private int formatLong(long v) {
+        int pos = digits.length;
+        boolean negative = v < 0;
+        if (!negative)
+            v = -v; // 按负数计算，这样Long.MIN_VALUE也不会溢出
+        do {
+            digits[--pos] = (byte) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (negative)
+            digits[--pos] = '-';
+        digitsStart = pos;
+        return digits.length - pos;
+    }
+
+    private static boolean isFourDigitYear(long dateValue) {
+        long year = dateValue >> 9;
+        return year >= 0 && year <= 9999;
+    }
+
+    private static void writeDate(ByteBuffer buffer, long dateValue) {
+        int year = (int) (dateValue >> 9);
+        int month = (int) (dateValue >>> 5) & 15;
+        int day = (int) dateValue & 31;
+        buffer.put((byte) ('0' + year / 1000));
+        buffer.put((byte) ('0' + year / 100 % 10));
+        buffer.put((byte) ('0' + year / 10 % 10));
+        buffer.put((byte) ('0' + year % 10));
+        buffer.put((byte) '-');
+        buffer.put((byte) ('0' + month / 10));
+        buffer.put((byte) ('0' + month % 10));
+        buffer.put((byte) '-');
+        buffer.put((byte) ('0' + day / 10));
+        buffer.put((byte) ('0' + day % 10));
+    }
+
+    // 跟MySQL一样没有小数部分时不写小数点，有小数部分时去掉末尾的0，返回的长度包括小数点
+    private static int getFractionLength(long nanos) {
+        int fraction = (int) (nanos % NANOS_PER_SECOND);
+        if (fraction == 0)
+            return 0;
+        int length = 9;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            length--;
+        }
+        return length + 1;
+    }
+
+    // HH:mm:ss，fractionLength大于0时再加上小数点和fractionLength - 1位小数
+    private static void writeTime(ByteBuffer buffer, long nanos, int fractionLength) {
+        long seconds = nanos / NANOS_PER_SECOND;
+        writeTwoDigits(buffer, (int) (seconds / 3600));
+        buffer.put((byte) ':');
+        writeTwoDigits(buffer, (int) (seconds / 60 % 60));
+        buffer.put((byte) ':');
+        writeTwoDigits(buffer, (int) (seconds % 60));
+        if (fractionLength > 0) {
+            int fraction = (int) (nanos % NANOS_PER_SECOND);
+            buffer.put((byte) '.');
+            for (int i = 1, divisor = 100_000_000; i < fractionLength; i++, divisor /= 10) {
+                buffer.put((byte) ('0' + fraction / divisor % 10));
+            }
+        }
+    }
+
+    private static void writeTwoDigits(ByteBuffer buffer, int v) {
+        buffer.put((byte) ('0' + v / 10));
+        buffer.put((byte) ('0' + v % 10));
+    }
+
+    private static int getUtf8Length(String s) {
+        int length = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // 不成对的代理字符按'?'处理
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static ByteBuffer writeUtf8(ByteBuffer buffer, PacketOutput out, String s) {
+        for (int i = 0, len = s.length(); i < len; i++) {
+            buffer = out.ensureRemaining(buffer, 4);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        return buffer;
+    }
+}
@@ -102,4 +102,15 @@ public interface Capabilities {
     int CLIENT_MULTI_RESULTS = 131072;
 
     int CLIENT_PLUGIN_AUTH = 0x00080000;
+
+    // 结果集不再使用EOF包，字段定义之后的EOF包省略，记录之后的EOF包用0xFE开头的OK包代替
+    int CLIENT_DEPRECATE_EOF = 1 << 24;
+
+    // 客户端可以通过resultset_metadata变量让服务器不发送结果集的字段定义
+    int CLIENT_OPTIONAL_RESULTSET_METADATA = 1 << 25;
+
+    // MariaDB的扩展能力标志，放在握手包和认证包中填充字节的最后4个字节，
+    // 只有服务器不设置CLIENT_LONG_PASSWORD(也就是MariaDB的CLIENT_MYSQL)时客户端才会读取，
+    // 所以只在配置了mariadb_capabilities时才发送
+    long MARIADB_CLIENT_STMT_BULK_OPERATIONS = 1L << 34;
 }
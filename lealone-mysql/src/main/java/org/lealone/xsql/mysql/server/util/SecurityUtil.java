@@ -15,8 +15,17 @@
  */
 package org.lealone.xsql.mysql.server.util;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
 
 import org.lealone.common.exceptions.DbException;
 
@@ -40,6 +49,11 @@ public final class SecurityUtil {
         return md.digest(pass.getBytes());
     }
 
+    public static byte[] sha1(byte[] pass) {
+        MessageDigest md = getMessageDigest();
+        return md.digest(pass);
+    }
+
     public static byte[] scramble411Sha1Pass(byte[] sha1Pass, byte[] seed) {
         MessageDigest md = getMessageDigest();
         byte[] pass2 = md.digest(sha1Pass);
@@ -66,6 +80,62 @@ public final class SecurityUtil {
         return pass3;
     }
 
+    public static byte[] sha256(byte[]... inputs) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (byte[] input : inputs)
+                md.update(input);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    /**
+     * caching_sha2_password的客户端发送的认证数据:
+     * XOR(SHA256(pass), SHA256(SHA256(SHA256(pass)), seed))
+     */
+    public static byte[] scrambleCachingSha2(byte[] pass, byte[] seed) {
+        byte[] pass1 = sha256(pass);
+        byte[] pass3 = sha256(sha256(pass1), seed);
+        for (int i = 0; i < pass3.length; i++) {
+            pass3[i] = (byte) (pass1[i] ^ pass3[i]);
+        }
+        return pass3;
+    }
+
+    public static KeyPair generateRsaKeyPair(int keySize) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(keySize);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    // PEM格式的X.509公钥，客户端用它加密密码
+    public static byte[] toPem(PublicKey publicKey) {
+        String base64 = Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(publicKey.getEncoded());
+        String pem = "-----BEGIN PUBLIC KEY-----\n" + base64 + "\n-----END PUBLIC KEY-----\n";
+        return pem.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 解密客户端用RSA公钥加密的数据，MySQL 8.0.5之后的客户端使用OAEP填充，之前的客户端使用PKCS#1填充
+     */
+    public static byte[] decryptRsa(PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+        try {
+            Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+            cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            return cipher.doFinal(data);
+        }
+    }
+
     public static String scramble323(String pass, String seed) {
         if ((pass == null) || (pass.length() == 0)) {
             return pass;
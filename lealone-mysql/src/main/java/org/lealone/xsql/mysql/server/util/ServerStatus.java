@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.util;
+
+/**
+ * OK包和EOF包中的服务器状态标识
+ * 
+ * @see http://dev.mysql.com/doc/internals/en/status-flags.html
+ */
+public interface ServerStatus {
+
+    // a transaction is active
+    int SERVER_STATUS_IN_TRANS = 0x0001;
+
+    // auto-commit is enabled
+    int SERVER_STATUS_AUTOCOMMIT = 0x0002;
+
+    // 还有更多的结果集要返回
+    int SERVER_MORE_RESULTS_EXISTS = 0x0008;
+
+    int SERVER_STATUS_NO_GOOD_INDEX_USED = 0x0010;
+
+    int SERVER_STATUS_NO_INDEX_USED = 0x0020;
+
+    // 用于COM_STMT_EXECUTE的响应，说明服务器端已经打开了一个只读游标，需要通过COM_STMT_FETCH获取记录
+    int SERVER_STATUS_CURSOR_EXISTS = 0x0040;
+
+    // 用于COM_STMT_FETCH的响应，说明游标中的最后一条记录已经发送
+    int SERVER_STATUS_LAST_ROW_SENT = 0x0080;
+
+    int SERVER_STATUS_DB_DROPPED = 0x0100;
+
+    int SERVER_STATUS_NO_BACKSLASH_ESCAPES = 0x0200;
+
+    int SERVER_STATUS_METADATA_CHANGED = 0x0400;
+
+    int SERVER_QUERY_WAS_SLOW = 0x0800;
+
+    int SERVER_PS_OUT_PARAMS = 0x1000;
+
+    int SERVER_STATUS_IN_TRANS_READONLY = 0x2000;
+
+    int SERVER_SESSION_STATE_CHANGED = 0x4000;
+}
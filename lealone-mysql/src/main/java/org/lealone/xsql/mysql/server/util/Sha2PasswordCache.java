@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.server.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lealone.common.util.Utils;
+
+/**
+ * caching_sha2_password的fast auth缓存。
+ *
+ * 用户第一次通过完整的认证后缓存SHA256(SHA256(password))，之后客户端发送的认证数据
+ * 只需要两次SHA256就能验证，不需要再通过RSA交换密码，一个来回就能完成认证。
+ * 同时缓存SHA1(password)，用它生成mysql_native_password格式的认证数据来创建会话，
+ * 如果密码已经修改，创建会话会失败，这时调用者要把用户从缓存中删除。
+ *
+ * 缓存按最近使用的顺序淘汰，最多保存maxSize个用户。
+ */
+public class Sha2PasswordCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public Sha2PasswordCache(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > Sha2PasswordCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 用户通过完整的认证后调用
+     *
+     * @param user 用户名
+     * @param password 明文密码
+     */
+    public void put(String user, byte[] password) {
+        if (maxSize <= 0)
+            return;
+        Entry e = new Entry(SecurityUtil.sha256(SecurityUtil.sha256(password)),
+                SecurityUtil.sha1(password));
+        synchronized (entries) {
+            entries.put(user, e);
+        }
+    }
+
+    public void remove(String user) {
+        synchronized (entries) {
+            entries.remove(user);
+        }
+    }
+
+    /**
+     * 验证客户端发送的认证数据
+     *
+     * @param user 用户名
+     * @param scramble XOR(SHA256(password), SHA256(SHA256(SHA256(password)), seed))
+     * @param seed 握手包中的随机数
+     * @return 验证成功时返回SHA1(password)，没有缓存或者验证失败时返回null
+     */
+    public byte[] fastAuth(String user, byte[] scramble, byte[] seed) {
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(user);
+        }
+        if (e == null || scramble.length != e.digest.length)
+            return null;
+        byte[] pass1 = SecurityUtil.sha256(e.digest, seed);
+        for (int i = 0; i < pass1.length; i++) {
+            pass1[i] ^= scramble[i];
+        }
+        if (!Utils.compareSecure(SecurityUtil.sha256(pass1), e.digest))
+            return null;
+        return e.sha1Pass;
+    }
+
+    private static class Entry {
+
+        final byte[] digest; // SHA256(SHA256(password))
+        final byte[] sha1Pass;
+
+        Entry(byte[] digest, byte[] sha1Pass) {
+            this.digest = digest;
+            this.sha1Pass = sha1Pass;
+        }
+    }
+}
@@ -10,7 +10,10 @@ import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
 
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.exceptions.UnsupportedSchemaException;
@@ -168,6 +171,11 @@ import org.lealone.sql.query.Select;
 import org.lealone.sql.query.SelectUnion;
 import org.lealone.xsql.mysql.sql.dml.MySQLAlterUser;
 import org.lealone.xsql.mysql.sql.dml.MySQLCreateUser;
+import org.lealone.xsql.mysql.sql.dml.MySQLInsert;
+import org.lealone.xsql.mysql.sql.dml.MySQLKill;
+import org.lealone.xsql.mysql.sql.dml.MySQLLoadData;
+import org.lealone.xsql.mysql.sql.dml.MySQLSelectIntoOutfile;
+import org.lealone.xsql.mysql.sql.dml.MySQLStreamingInsert;
 import org.lealone.xsql.mysql.sql.expression.MySQLVariable;
 
 /**
@@ -192,6 +200,9 @@ public class MySQLParser implements SQLParser {
     private static final int CURRENT_TIMESTAMP = 21, CURRENT_DATE = 22, CURRENT_TIME = 23, ROWNUM = 24;
     private static final int SPATIAL_INTERSECTS = 25;
 
+    // VALUES列表超过这个长度(字符数)时才尝试在执行时边解析边插入
+    private static final int STREAMING_INSERT_MIN_LENGTH = 64 * 1024;
+
     private final Database database;
     private final ServerSession session;
     /**
@@ -219,10 +230,13 @@ public class MySQLParser implements SQLParser {
     private Select currentSelect;
     private String schemaName;
     private boolean rightsChecked;
+    private Table duplicateKeyTable;
+    private HashMap<Column, Parameter> duplicateKeyValues;
     private boolean recompileAlways;
     private ArrayList<String> expectedList;
     private ArrayList<Parameter> parameters;
     private ArrayList<Parameter> indexedParameterList;
+    private int boundParameterIndex;
 
     public MySQLParser(ServerSession session) {
         this.database = session.getDatabase();
@@ -416,6 +430,18 @@ public class MySQLParser implements SQLParser {
                     s = parseInsert();
                 }
                 break;
+            case 'k':
+            case 'K':
+                if (readIf("KILL")) {
+                    s = parseKill();
+                }
+                break;
+            case 'l':
+            case 'L':
+                if (readIf("LOAD")) {
+                    s = parseLoadData();
+                }
+                break;
             case 'm':
             case 'M':
                 if (readIf("MERGE")) {
@@ -432,6 +458,8 @@ public class MySQLParser implements SQLParser {
             case 'R':
                 if (readIf("ROLLBACK")) {
                     s = parseRollback();
+                } else if (readIf("REPLACE")) {
+                    s = parseReplace();
                 } else if (readIf("REVOKE")) {
                     s = parseGrantRevoke(SQLStatement.REVOKE);
                 } else if (readIf("RUNSCRIPT")) {
@@ -488,6 +516,9 @@ public class MySQLParser implements SQLParser {
             default:
                 throw getSyntaxError();
             }
+            if (s instanceof Query && readIf("INTO")) {
+                s = parseSelectIntoOutfile((Query) s);
+            }
             if (indexedParameterList != null) {
                 for (int i = 0, size = indexedParameterList.size(); i < size; i++) {
                     if (indexedParameterList.get(i) == null) {
@@ -1049,18 +1080,192 @@ public class MySQLParser implements SQLParser {
         return command;
     }
 
-    private Insert parseInsert() {
-        Insert command = new Insert(session);
+    private MySQLSelectIntoOutfile parseSelectIntoOutfile(Query query) {
+        read("OUTFILE");
+        MySQLSelectIntoOutfile command = new MySQLSelectIntoOutfile(session, query);
+        command.setFileName(readString());
+        if (readIf("CHARACTER")) {
+            read("SET");
+            command.setCharset(currentTokenType == VALUE ? readString() : readUniqueIdentifier());
+        }
+        if (readIf("FIELDS") || readIf("COLUMNS")) {
+            boolean more = false;
+            if (readIf("TERMINATED")) {
+                read("BY");
+                command.setFieldsTerminatedBy(readEscapedString());
+                more = true;
+            }
+            boolean optionally = readIf("OPTIONALLY");
+            if (optionally || readIf("ENCLOSED")) {
+                if (optionally) {
+                    read("ENCLOSED");
+                }
+                read("BY");
+                command.setEnclosedBy(readEscapedString(), optionally);
+                more = true;
+            }
+            if (readIf("ESCAPED")) {
+                read("BY");
+                command.setEscapedBy(readEscapedString());
+                more = true;
+            }
+            if (!more) {
+                throw getSyntaxError();
+            }
+        }
+        if (readIf("LINES")) {
+            boolean more = false;
+            if (readIf("STARTING")) {
+                read("BY");
+                command.setLinesStartingBy(readEscapedString());
+                more = true;
+            }
+            if (readIf("TERMINATED")) {
+                read("BY");
+                command.setLinesTerminatedBy(readEscapedString());
+                more = true;
+            }
+            if (!more) {
+                throw getSyntaxError();
+            }
+        }
+        query.prepare();
+        return command;
+    }
+
+    private MySQLLoadData parseLoadData() {
+        MySQLLoadData command = new MySQLLoadData(session);
         currentStatement = command;
+        read("DATA");
+        if (!readIf("LOW_PRIORITY")) {
+            readIf("CONCURRENT");
+        }
+        command.setLocal(readIf("LOCAL"));
+        read("INFILE");
+        command.setFileName(readString());
+        if (readIf("REPLACE")) {
+            command.setDuplicateHandling(MySQLLoadData.DUPLICATE_REPLACE);
+        } else if (readIf("IGNORE")) {
+            command.setDuplicateHandling(MySQLLoadData.DUPLICATE_IGNORE);
+        }
         read("INTO");
+        read("TABLE");
+        Table table = readTableOrView();
+        command.setTable(table);
+        if (readIf("CHARACTER")) {
+            read("SET");
+            command.setCharset(currentTokenType == VALUE ? readString() : readUniqueIdentifier());
+        }
+        if (readIf("FIELDS") || readIf("COLUMNS")) {
+            boolean more = false;
+            if (readIf("TERMINATED")) {
+                read("BY");
+                command.setFieldsTerminatedBy(readEscapedString());
+                more = true;
+            }
+            readIf("OPTIONALLY");
+            if (readIf("ENCLOSED")) {
+                read("BY");
+                command.setEnclosedBy(readEscapedString());
+                more = true;
+            }
+            if (readIf("ESCAPED")) {
+                read("BY");
+                command.setEscapedBy(readEscapedString());
+                more = true;
+            }
+            if (!more) {
+                throw getSyntaxError();
+            }
+        }
+        if (readIf("LINES")) {
+            boolean more = false;
+            if (readIf("STARTING")) {
+                read("BY");
+                command.setLinesStartingBy(readEscapedString());
+                more = true;
+            }
+            if (readIf("TERMINATED")) {
+                read("BY");
+                command.setLinesTerminatedBy(readEscapedString());
+                more = true;
+            }
+            if (!more) {
+                throw getSyntaxError();
+            }
+        }
+        if (readIf("IGNORE")) {
+            command.setIgnoreLines(readLong());
+            if (!readIf("LINES")) {
+                read("ROWS");
+            }
+        }
+        if (readIf("(")) {
+            command.setColumns(parseColumnList(table));
+        }
+        return command;
+    }
+
+    // MySQL的字符串可以用反斜杠转义，例如FIELDS TERMINATED BY '\t'
+    private String readEscapedString() {
+        String s = readString();
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder buff = new StringBuilder(s.length());
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= len) {
+                buff.append(c);
+                continue;
+            }
+            c = s.charAt(++i);
+            switch (c) {
+            case '0':
+                buff.append((char) 0);
+                break;
+            case 'b':
+                buff.append('\b');
+                break;
+            case 'n':
+                buff.append('\n');
+                break;
+            case 'r':
+                buff.append('\r');
+                break;
+            case 't':
+                buff.append('\t');
+                break;
+            case 'Z':
+                buff.append((char) 26);
+                break;
+            default:
+                buff.append(c);
+            }
+        }
+        return buff.toString();
+    }
+
+    private StatementBase parseInsert() {
+        Insert command = new Insert(session);
+        currentStatement = command;
+        // MySQL的优先级选项不影响执行
+        if (!readIf("LOW_PRIORITY") && !readIf("DELAYED")) {
+            readIf("HIGH_PRIORITY");
+        }
+        boolean ignore = readIf("IGNORE");
+        readIf("INTO");
         Table table = readTableOrView();
         command.setTable(table);
         Column[] columns = null;
+        Query query = null;
+        ArrayList<Expression[]> rows = Utils.newSmallArrayList();
         if (readIf("(")) {
             if (isSelect()) {
-                command.setQuery(parseSelect());
+                query = parseSelect();
+                command.setQuery(query);
                 read(")");
-                return command;
+                return parseInsertIgnoreOrOnDuplicate(command, ignore, table, null, rows, query);
             }
             columns = parseColumnList(table);
             command.setColumns(columns);
@@ -1072,7 +1277,13 @@ public class MySQLParser implements SQLParser {
             read("VALUES");
             Expression[] expr = {};
             command.addRow(expr);
-        } else if (readIf("VALUES")) {
+            rows.add(expr);
+        } else if (readIf("VALUES") || readIf("VALUE")) {
+            if (!ignore) {
+                StatementBase s = parseStreamingInsert(table, columns);
+                if (s != null)
+                    return s;
+            }
             read("(");
             do {
                 ArrayList<Expression> values = Utils.newSmallArrayList();
@@ -1085,7 +1296,9 @@ public class MySQLParser implements SQLParser {
                         }
                     } while (readIfMore());
                 }
-                command.addRow(values.toArray(new Expression[values.size()]));
+                Expression[] row = values.toArray(new Expression[values.size()]);
+                command.addRow(row);
+                rows.add(row);
                 // the following condition will allow (..),; and (..);
             } while (readIf(",") && readIf("("));
         } else if (readIf("SET")) {
@@ -1105,6 +1318,240 @@ public class MySQLParser implements SQLParser {
                 }
                 values.add(expression);
             } while (readIf(","));
+            columns = columnList.toArray(new Column[columnList.size()]);
+            command.setColumns(columns);
+            Expression[] row = values.toArray(new Expression[values.size()]);
+            command.addRow(row);
+            rows.add(row);
+        } else {
+            query = parseSelect();
+            command.setQuery(query);
+        }
+        return parseInsertIgnoreOrOnDuplicate(command, ignore, table, columns, rows, query);
+    }
+
+    // 很大的VALUES列表如果只包含常量、参数和DEFAULT，先只检查一遍语法不生成表达式，
+    // 执行时再用parseValuesRows重新解析，每解析出一批记录就插入，见MySQLStreamingInsert。
+    // 遇到其他表达式或者后面还有ON DUPLICATE KEY UPDATE时返回null，回到VALUES列表的开始按正常方式解析
+    private StatementBase parseStreamingInsert(Table table, Column[] columns) {
+        int start = lastParseIndex;
+        if (sqlCommandChars.length - start < STREAMING_INSERT_MIN_LENGTH || indexedParameterList != null)
+            return null;
+        if (columns == null)
+            columns = table.getColumns();
+        int parameterCount = parameters.size();
+        Expression[] row = new Expression[columns.length];
+        boolean literal = true;
+        try {
+            do {
+                if (!readLiteralRow(row, null)) {
+                    literal = false;
+                    break;
+                }
+            } while (readIf(",") && isToken("("));
+        } catch (DbException e) {
+            // 语法错误留给正常的解析过程报告
+            literal = false;
+        }
+        if (literal && !isToken("ON")) {
+            MySQLStreamingInsert command = new MySQLStreamingInsert(session);
+            command.setTable(table);
+            command.setColumns(columns);
+            command.setValues(originalSQL, start,
+                    new ArrayList<>(parameters.subList(parameterCount, parameters.size())));
+            return command;
+        }
+        parameters.subList(parameterCount, parameters.size()).clear();
+        parseIndex = start;
+        read();
+        return null;
+    }
+
+    /**
+     * 重新解析parseStreamingInsert检查过的VALUES列表，每读出一行就交给handler，
+     * 行中的参数按出现的顺序使用valuesParameters中的值，DEFAULT用null表示。
+     *
+     * @param sql 原始的SQL语句
+     * @param start VALUES列表中第一个左括号的位置
+     * @param valuesParameters VALUES列表中的参数
+     * @param columnCount 每行的值个数
+     * @param handler 处理每一行的表达式
+     */
+    public void parseValuesRows(String sql, int start, List<Parameter> valuesParameters, int columnCount,
+            Consumer<Expression[]> handler) {
+        parameters = Utils.newSmallArrayList();
+        initialize(sql);
+        parseIndex = start;
+        read();
+        boundParameterIndex = 0;
+        do {
+            Expression[] row = new Expression[columnCount];
+            if (!readLiteralRow(row, valuesParameters)) {
+                throw getSyntaxError();
+            }
+            handler.accept(row);
+        } while (readIf(",") && isToken("("));
+    }
+
+    // 读一行只包含常量、参数和DEFAULT的值，值的个数跟row的长度不同或者遇到其他表达式时返回false。
+    // valuesParameters为null时只是检查语法，参数跟readTerm一样加到parameters中
+    private boolean readLiteralRow(Expression[] row, List<Parameter> valuesParameters) {
+        read("(");
+        int i = 0;
+        if (!readIf(")")) {
+            do {
+                if (i >= row.length)
+                    return false;
+                Expression e;
+                if (readIf("DEFAULT")) {
+                    e = null;
+                } else {
+                    switch (currentTokenType) {
+                    case VALUE:
+                        e = ValueExpression.get(currentValue);
+                        read();
+                        break;
+                    case MINUS:
+                        read();
+                        if (currentTokenType != VALUE)
+                            return false;
+                        e = ValueExpression.get(currentValue.negate());
+                        read();
+                        break;
+                    case NULL:
+                        read();
+                        e = ValueExpression.getNull();
+                        break;
+                    case TRUE:
+                        read();
+                        e = ValueExpression.get(ValueBoolean.get(true));
+                        break;
+                    case FALSE:
+                        read();
+                        e = ValueExpression.get(ValueBoolean.get(false));
+                        break;
+                    case PARAMETER:
+                        // 带编号的参数按正常方式解析
+                        if (Character.isDigit(sqlCommandChars[parseIndex]))
+                            return false;
+                        read();
+                        if (valuesParameters == null) {
+                            Parameter p = new Parameter(parameters.size());
+                            parameters.add(p);
+                            e = p;
+                        } else {
+                            Parameter p = valuesParameters.get(boundParameterIndex++);
+                            e = ValueExpression.get(p.getValue(session));
+                        }
+                        break;
+                    default:
+                        return false;
+                    }
+                }
+                row[i++] = e;
+            } while (readIfMore());
+        }
+        return i == row.length;
+    }
+
+    // INSERT IGNORE和INSERT ... ON DUPLICATE KEY UPDATE使用MySQLInsert执行，其他情况还是使用Insert
+    private StatementBase parseInsertIgnoreOrOnDuplicate(Insert insert, boolean ignore, Table table,
+            Column[] columns, ArrayList<Expression[]> rows, Query query) {
+        TableFilter filter = null;
+        ArrayList<Column> updateColumns = null;
+        ArrayList<Expression> updateExpressions = null;
+        HashMap<Column, Parameter> values = null;
+        if (readIf("ON")) {
+            read("DUPLICATE");
+            read("KEY");
+            read("UPDATE");
+            filter = new TableFilter(session, table, null, rightsChecked, currentSelect);
+            updateColumns = Utils.newSmallArrayList();
+            updateExpressions = Utils.newSmallArrayList();
+            values = new HashMap<>();
+            duplicateKeyTable = table;
+            duplicateKeyValues = values;
+            try {
+                do {
+                    Column column = readTableColumn(filter);
+                    read("=");
+                    Expression expression;
+                    if (readIf("DEFAULT")) {
+                        expression = ValueExpression.getDefault();
+                    } else {
+                        expression = readExpression();
+                    }
+                    updateColumns.add(column);
+                    updateExpressions.add(expression);
+                } while (readIf(","));
+            } finally {
+                duplicateKeyTable = null;
+                duplicateKeyValues = null;
+            }
+        }
+        if (!ignore && filter == null) {
+            return insert;
+        }
+        MySQLInsert command = new MySQLInsert(session);
+        currentStatement = command;
+        command.setTable(table);
+        command.setColumns(columns);
+        command.setQuery(query);
+        for (Expression[] row : rows) {
+            command.addRow(row);
+        }
+        command.setIgnore(ignore);
+        if (filter != null) {
+            Column[] columnArray = updateColumns.toArray(new Column[updateColumns.size()]);
+            Expression[] expressionArray = updateExpressions
+                    .toArray(new Expression[updateExpressions.size()]);
+            command.setOnDuplicateKeyUpdate(filter, columnArray, expressionArray, values);
+        }
+        return command;
+    }
+
+    // REPLACE跟MySQL一样，先删除跟任何一个唯一索引冲突的所有记录，然后再插入
+    private StatementBase parseReplace() {
+        MySQLInsert command = new MySQLInsert(session);
+        currentStatement = command;
+        command.setReplace(true);
+        if (!readIf("LOW_PRIORITY")) {
+            readIf("DELAYED");
+        }
+        readIf("INTO");
+        Table table = readTableOrView();
+        command.setTable(table);
+        if (readIf("(")) {
+            if (isSelect()) {
+                command.setQuery(parseSelect());
+                read(")");
+                return command;
+            }
+            command.setColumns(parseColumnList(table));
+        }
+        if (readIf("VALUES") || readIf("VALUE")) {
+            do {
+                ArrayList<Expression> values = Utils.newSmallArrayList();
+                read("(");
+                if (!readIf(")")) {
+                    do {
+                        if (readIf("DEFAULT")) {
+                            values.add(null);
+                        } else {
+                            values.add(readExpression());
+                        }
+                    } while (readIfMore());
+                }
+                command.addRow(values.toArray(new Expression[values.size()]));
+            } while (readIf(","));
+        } else if (readIf("SET")) {
+            ArrayList<Column> columnList = Utils.newSmallArrayList();
+            ArrayList<Expression> values = Utils.newSmallArrayList();
+            do {
+                columnList.add(parseColumn(table));
+                read("=");
+                values.add(readIf("DEFAULT") ? null : readExpression());
+            } while (readIf(","));
             command.setColumns(columnList.toArray(new Column[columnList.size()]));
             command.addRow(values.toArray(new Expression[values.size()]));
         } else {
@@ -2264,6 +2711,17 @@ public class MySQLParser implements SQLParser {
     }
 
     private Expression readFunction(Schema schema, String name) {
+        // ON DUPLICATE KEY UPDATE中的VALUES(col)表示要插入的值
+        if (duplicateKeyValues != null && schema == null && equalsToken("VALUES", name)) {
+            Column column = duplicateKeyTable.getColumn(readColumnIdentifier());
+            read(")");
+            Parameter p = duplicateKeyValues.get(column);
+            if (p == null) {
+                p = new Parameter(column.getColumnId());
+                duplicateKeyValues.put(column, p);
+            }
+            return p;
+        }
         if (schema != null) {
             UserAggregate aggregate = schema.findAggregate(session, name);
             if (aggregate != null) {
@@ -4880,6 +5338,18 @@ public class MySQLParser implements SQLParser {
         return command;
     }
 
+    // KILL [CONNECTION | QUERY] processlist_id
+    private StatementBase parseKill() {
+        MySQLKill command = new MySQLKill(session);
+        if (readIf("QUERY")) {
+            command.setQuery(true);
+        } else {
+            readIf("CONNECTION");
+        }
+        command.setConnectionId(readLong());
+        return command;
+    }
+
     private StatementBase parseSet() {
         if (readIf("@")) { // session变量
             SetSession command = new SetSession(session, SessionSetting.VARIABLE);
@@ -4979,6 +5449,23 @@ public class MySQLParser implements SQLParser {
                 command.setString(readUniqueIdentifier()); // 不加单引号
             }
             return command;
+        } else if (readIf(MySQLVariable.RESULTSET_METADATA)) {
+            readIfEqualOrTo();
+            SetSession command = new SetSession(session, SessionSetting.VARIABLE);
+            command.setString(MySQLVariable.RESULTSET_METADATA);
+            String value = currentTokenType == VALUE ? readString() : readUniqueIdentifier();
+            command.setExpression(ValueExpression.get(ValueString.get(value)));
+            return command;
+        } else if (readIf(MySQLVariable.MAX_EXECUTION_TIME)) {
+            readIfEqualOrTo();
+            SetSession command = new SetSession(session, SessionSetting.VARIABLE);
+            command.setString(MySQLVariable.MAX_EXECUTION_TIME);
+            long value = readLong();
+            if (value < 0) {
+                throw DbException.getInvalidValueException("max_execution_time", value);
+            }
+            command.setExpression(ValueExpression.get(ValueLong.get(value)));
+            return command;
         } else if (readIf("NAMES")) {
             readIfEqualOrTo();
             if (currentTokenType == IDENTIFIER) {
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * 按LOAD DATA的FIELDS和LINES选项把输入的数据分割成记录。
+ *
+ * 数据可以分多次追加，每次只解析完整的记录，不完整的部分留到下一次追加时再解析，
+ * 所以不需要把整个文件放到内存中。
+ */
+class LoadDataParser {
+
+    interface RowHandler {
+        void handleRow(String[] row);
+    }
+
+    private final String fieldsTerminatedBy;
+    private final String enclosedBy;
+    private final char escapedBy; // 0表示不使用转义字符
+    private final String linesStartingBy;
+    private final String linesTerminatedBy;
+    private final RowHandler handler;
+
+    private final CharsetDecoder decoder;
+    private final StringBuilder buff = new StringBuilder();
+    private ByteBuffer remainingBytes;
+    private CharBuffer chars = CharBuffer.allocate(8192);
+
+    // 以下字段是跨多次追加保留的解析状态
+    private final ArrayList<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private boolean lineStarted; // 已经找到LINES STARTING BY
+    private boolean escaping;
+    private boolean enclosed; // 在ENCLOSED BY的字符之间
+    private boolean fieldWasEnclosed;
+    private boolean fieldIsNull;
+
+    LoadDataParser(Charset charset, String fieldsTerminatedBy, String enclosedBy, String escapedBy,
+            String linesStartingBy, String linesTerminatedBy, RowHandler handler) {
+        this.fieldsTerminatedBy = fieldsTerminatedBy;
+        this.enclosedBy = enclosedBy;
+        this.escapedBy = escapedBy.isEmpty() ? 0 : escapedBy.charAt(0);
+        this.linesStartingBy = linesStartingBy;
+        this.linesTerminatedBy = linesTerminatedBy;
+        this.handler = handler;
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    void append(byte[] bytes, int offset, int length) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, offset, length);
+        // 上一次留下的不完整的多字节字符
+        if (remainingBytes != null) {
+            ByteBuffer b = ByteBuffer.allocate(remainingBytes.remaining() + length);
+            b.put(remainingBytes).put(in).flip();
+            in = b;
+            remainingBytes = null;
+        }
+        while (true) {
+            CoderResult cr = decoder.decode(in, chars, false);
+            chars.flip();
+            buff.append(chars);
+            chars.clear();
+            if (!cr.isOverflow())
+                break;
+        }
+        if (in.hasRemaining()) {
+            remainingBytes = ByteBuffer.allocate(in.remaining());
+            remainingBytes.put(in).flip();
+        }
+        parse(false);
+    }
+
+    void end() {
+        if (remainingBytes != null) {
+            CharBuffer cb = CharBuffer.allocate(remainingBytes.remaining() + 1);
+            decoder.decode(remainingBytes, cb, true);
+            cb.flip();
+            buff.append(cb);
+            remainingBytes = null;
+        }
+        parse(true);
+        if (!fields.isEmpty() || field.length() > 0 || fieldWasEnclosed || fieldIsNull)
+            endRow();
+    }
+
+    private void parse(boolean eof) {
+        int pos = 0;
+        int len = buff.length();
+        loop: while (pos < len) {
+            if (!lineStarted) {
+                if (linesStartingBy.isEmpty()) {
+                    lineStarted = true;
+                } else {
+                    // 跳过前缀之前的数据，找不到前缀的行整行跳过
+                    int start = buff.indexOf(linesStartingBy, pos);
+                    int end = buff.indexOf(linesTerminatedBy, pos);
+                    if (end >= 0 && (start < 0 || end < start)) {
+                        pos = end + linesTerminatedBy.length();
+                    } else if (start >= 0) {
+                        pos = start + linesStartingBy.length();
+                        lineStarted = true;
+                    } else {
+                        if (eof)
+                            pos = len;
+                        break;
+                    }
+                    continue;
+                }
+            }
+            char c = buff.charAt(pos);
+            if (escaping) {
+                escaping = false;
+                pos++;
+                if (c == 'N' && field.length() == 0 && !fieldWasEnclosed) {
+                    fieldIsNull = true;
+                } else {
+                    field.append(unescape(c));
+                }
+                continue;
+            }
+            if (c == escapedBy && escapedBy != 0) {
+                escaping = true;
+                pos++;
+                continue;
+            }
+            if (enclosed) {
+                if (!enclosedBy.isEmpty() && c == enclosedBy.charAt(0)) {
+                    // 两个连续的ENCLOSED BY字符表示字符本身
+                    if (pos + 1 >= len && !eof)
+                        break;
+                    if (pos + 1 < len && buff.charAt(pos + 1) == c) {
+                        field.append(c);
+                        pos += 2;
+                    } else {
+                        enclosed = false;
+                        pos++;
+                    }
+                } else {
+                    field.append(c);
+                    pos++;
+                }
+                continue;
+            }
+            switch (match(pos, len, eof)) {
+            case 0: // 需要更多的数据才能判断
+                break loop;
+            case 1:
+                endField();
+                pos += fieldsTerminatedBy.length();
+                break;
+            case 2:
+                endField();
+                endRow();
+                pos += linesTerminatedBy.length();
+                break;
+            default:
+                if (field.length() == 0 && !fieldWasEnclosed && !fieldIsNull && !enclosedBy.isEmpty()
+                        && c == enclosedBy.charAt(0)) {
+                    enclosed = true;
+                    fieldWasEnclosed = true;
+                } else {
+                    field.append(c);
+                }
+                pos++;
+            }
+        }
+        buff.delete(0, pos);
+    }
+
+    // 返回1表示字段分隔符，2表示行分隔符，3表示普通字符，0表示数据不够
+    private int match(int pos, int len, boolean eof) {
+        int m = startsWith(fieldsTerminatedBy, pos, len, eof);
+        if (m != 3)
+            return m == 1 ? 1 : 0;
+        m = startsWith(linesTerminatedBy, pos, len, eof);
+        if (m != 3)
+            return m == 1 ? 2 : 0;
+        return 3;
+    }
+
+    // 返回1表示匹配，3表示不匹配，0表示数据不够
+    private int startsWith(String s, int pos, int len, boolean eof) {
+        int n = s.length();
+        if (n == 0)
+            return 3;
+        for (int i = 0; i < n; i++) {
+            if (pos + i >= len)
+                return eof ? 3 : 0;
+            if (buff.charAt(pos + i) != s.charAt(i))
+                return 3;
+        }
+        return 1;
+    }
+
+    private void endField() {
+        String v;
+        if (fieldIsNull && field.length() == 0) {
+            v = null;
+        } else if (!fieldWasEnclosed && !enclosedBy.isEmpty() && "NULL".contentEquals(field)) {
+            v = null; // 指定了ENCLOSED BY时，没有被包围的NULL也表示空值
+        } else {
+            v = field.toString();
+        }
+        fields.add(v);
+        field.setLength(0);
+        fieldWasEnclosed = false;
+        fieldIsNull = false;
+        enclosed = false;
+    }
+
+    private void endRow() {
+        if (field.length() > 0 || fieldWasEnclosed || fieldIsNull)
+            endField();
+        // 忽略空行
+        if (!(fields.size() == 1 && "".equals(fields.get(0)))) {
+            handler.handleRow(fields.toArray(new String[fields.size()]));
+        }
+        fields.clear();
+        lineStarted = false;
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+        case '0':
+            return 0;
+        case 'b':
+            return '\b';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'Z':
+            return 26;
+        default:
+            return c;
+        }
+    }
+}
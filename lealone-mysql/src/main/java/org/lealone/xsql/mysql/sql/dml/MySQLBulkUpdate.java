@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.util.List;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.CommandParameter;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.sql.StatementBase;
+import org.lealone.sql.dml.ManipulationStatement;
+
+/**
+ * MariaDB的COM_STMT_BULK_EXECUTE，一个预处理语句带多行参数。
+ *
+ * 所有参数行在一次执行中依次绑定到同一个语句上，中间不需要回到调度器，只在最后返回总的影响行数。
+ */
+public class MySQLBulkUpdate extends ManipulationStatement {
+
+    private final StatementBase statement;
+    private final List<Value[]> rows;
+    private volatile boolean canceled;
+
+    public MySQLBulkUpdate(ServerSession session, StatementBase statement, List<Value[]> rows) {
+        super(session);
+        this.statement = statement;
+        this.rows = rows;
+        setSQL(statement.getSQL());
+    }
+
+    @Override
+    public int getType() {
+        return statement.getType();
+    }
+
+    // KILL QUERY取消的是这个语句，每绑定一行参数前检查一次
+    @Override
+    public void cancel() {
+        canceled = true;
+        super.cancel();
+    }
+
+    @Override
+    public int update() {
+        List<? extends CommandParameter> params = statement.getParameters();
+        long updateCount = 0;
+        for (Value[] row : rows) {
+            if (canceled)
+                throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+            for (int i = 0, size = params.size(); i < size; i++) {
+                params.get(i).setValue(row[i]);
+            }
+            updateCount += statement.update();
+        }
+        return (int) Math.min(updateCount, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.index.Index;
+import org.lealone.db.result.ResultTarget;
+import org.lealone.db.result.Row;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.Table;
+import org.lealone.db.table.TableFilter;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.Delete;
+import org.lealone.sql.dml.Insert;
+import org.lealone.sql.dml.ManipulationStatement;
+import org.lealone.sql.dml.Update;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionColumn;
+import org.lealone.sql.expression.Parameter;
+import org.lealone.sql.expression.ValueExpression;
+import org.lealone.sql.expression.condition.Comparison;
+import org.lealone.sql.query.Query;
+
+/**
+ * This class represents the statements
+ * INSERT IGNORE, INSERT ... ON DUPLICATE KEY UPDATE and REPLACE
+ *
+ * 每一行先补齐默认值后直接插入，大多数记录没有冲突，不需要查找唯一索引。插入失败时才按主键和
+ * 所有唯一索引(键值中有NULL的索引不会冲突)查找冲突的记录：ON DUPLICATE KEY UPDATE在找到的记录上
+ * 计算新值，有变化时才按_ROWID_更新，REPLACE删除所有冲突的记录后再插入，INSERT IGNORE跳过冲突的记录。
+ * 查找之后冲突的记录又被其他事务删除或者又有新的冲突时重新插入。
+ * UPDATE中的VALUES(col)用参数表示，执行每一行时设置成这一行要插入的值(包括默认值)。
+ *
+ * REPLACE不使用MERGE：MERGE按主键原地更新，影响的记录数总是1，也不会删除跟其他唯一索引冲突的记录，
+ * 而MySQL的REPLACE是先删除再插入，替换一条记录时影响的记录数是2。
+ *
+ * 影响的记录数跟MySQL一样：插入一行算1，更新了一行算2，更新前后的值相同时算0
+ * (客户端设置了CLIENT_FOUND_ROWS时算1)，REPLACE还要加上删除的记录数。
+ */
+public class MySQLInsert extends ManipulationStatement implements ResultTarget {
+
+    // 查找冲突的记录和插入之间被其他事务抢先时最多重试的次数
+    private static final int MAX_RETRIES = 10;
+
+    private Table table;
+    private Column[] columns;
+    private final ArrayList<Expression[]> rows = new ArrayList<>();
+    private Query query;
+    private boolean ignore;
+    private boolean replace;
+    private boolean foundRows;
+
+    private TableFilter updateFilter;
+    private Column[] updateColumns;
+    private Expression[] updateExpressions;
+    private Map<Column, Parameter> valuesParameters;
+
+    // 第一次执行时初始化
+    private Insert insert;
+    private Parameter[] insertParameters;
+    private Index[] uniqueIndexes;
+    private Parameter rowIdParameter;
+    private Update update;
+    private Parameter[] updateParameters;
+    private Delete delete;
+    private int updateCount;
+
+    public MySQLInsert(ServerSession session) {
+        super(session);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.INSERT;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public void setColumns(Column[] columns) {
+        this.columns = columns;
+    }
+
+    public void addRow(Expression[] row) {
+        rows.add(row);
+    }
+
+    public void setQuery(Query query) {
+        this.query = query;
+    }
+
+    public void setIgnore(boolean ignore) {
+        this.ignore = ignore;
+    }
+
+    /**
+     * 为true时是REPLACE语句，先删除所有冲突的记录再插入
+     */
+    public void setReplace(boolean replace) {
+        this.replace = replace;
+    }
+
+    /**
+     * 对应客户端的CLIENT_FOUND_ROWS，为true时更新前后的值相同的记录也算1
+     */
+    public void setFoundRows(boolean foundRows) {
+        this.foundRows = foundRows;
+    }
+
+    /**
+     * @param filter 赋值表达式中的列所属的表
+     * @param columns 要更新的列
+     * @param expressions 每一列的赋值表达式，DEFAULT用ValueExpression.getDefault()表示
+     * @param valuesParameters 赋值表达式中的VALUES(col)
+     */
+    public void setOnDuplicateKeyUpdate(TableFilter filter, Column[] columns, Expression[] expressions,
+            Map<Column, Parameter> valuesParameters) {
+        this.updateFilter = filter;
+        this.updateColumns = columns;
+        this.updateExpressions = expressions;
+        this.valuesParameters = valuesParameters;
+    }
+
+    @Override
+    public int update() {
+        if (insert == null)
+            init();
+        updateCount = 0;
+        if (query != null) {
+            query.query(0, this);
+        } else {
+            for (Expression[] row : rows) {
+                Value[] values = new Value[columns.length];
+                for (int i = 0; i < values.length; i++) {
+                    Expression e = row[i];
+                    // 值为null的列在addRow中使用默认值
+                    if (e != null && e != ValueExpression.getDefault())
+                        values[i] = e.optimize(session).getValue(session);
+                }
+                addRow(values);
+            }
+        }
+        return updateCount;
+    }
+
+    /**
+     * 逐行执行，values中为null的元素表示使用默认值，LOAD DATA和很大的多行INSERT也使用它
+     */
+    public int insertRows(List<Value[]> valuesList) {
+        if (insert == null)
+            init();
+        updateCount = 0;
+        for (Value[] values : valuesList)
+            addRow(values);
+        return updateCount;
+    }
+
+    @Override
+    public void addRow(Value[] values) {
+        Row row = createRow(values);
+        for (int retry = 0;; retry++) {
+            try {
+                if (retry > 0) {
+                    if (replace)
+                        updateCount += deleteConflicts(row);
+                    else if (updateConflict(row))
+                        return;
+                }
+                insertRow(row);
+                return;
+            } catch (DbException e) {
+                if (e.getErrorCode() != ErrorCode.DUPLICATE_KEY_1)
+                    throw e;
+                // 第一次插入冲突时先更新或删除冲突的记录，INSERT IGNORE ... ON DUPLICATE KEY UPDATE也一样
+                boolean resolvable = updateColumns != null || replace;
+                if (resolvable && retry == 0)
+                    continue;
+                if (ignore)
+                    return;
+                if (!resolvable || retry >= MAX_RETRIES)
+                    throw e;
+            }
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return updateCount;
+    }
+
+    private void init() {
+        if (columns == null)
+            columns = table.getColumns();
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            Expression[] row = rows.get(i);
+            if (row.length == 0) // INSERT ... DEFAULT VALUES
+                rows.set(i, new Expression[columns.length]);
+            else if (row.length != columns.length)
+                throw DbException.get(ErrorCode.COLUMN_COUNT_DOES_NOT_MATCH);
+        }
+        if (query != null) {
+            query.prepare();
+            if (query.getColumnCount() != columns.length)
+                throw DbException.get(ErrorCode.COLUMN_COUNT_DOES_NOT_MATCH);
+        }
+        // 补齐默认值后每一行都有表的所有列，所以所有行都使用同一个Insert
+        Column[] allColumns = table.getColumns();
+        insert = new Insert(session);
+        insert.setTable(table);
+        insert.setColumns(allColumns);
+        insertParameters = new Parameter[allColumns.length];
+        for (int i = 0; i < allColumns.length; i++) {
+            insertParameters[i] = new Parameter(i);
+        }
+        insert.addRow(insertParameters);
+        insert.prepare();
+        if (updateColumns != null || replace) {
+            uniqueIndexes = getUniqueIndexes();
+            rowIdParameter = new Parameter(0);
+        }
+        if (updateColumns != null) {
+            for (int i = 0; i < updateExpressions.length; i++) {
+                Expression e = updateExpressions[i];
+                if (e != ValueExpression.getDefault()) {
+                    e.mapColumns(updateFilter, 0);
+                    updateExpressions[i] = e.optimize(session);
+                }
+            }
+            // 新值在找到的记录上算好后通过参数传给UPDATE
+            update = new Update(session);
+            update.setTableFilter(new TableFilter(session, table, null, true, null));
+            updateParameters = new Parameter[updateColumns.length];
+            for (int i = 0; i < updateColumns.length; i++) {
+                updateParameters[i] = new Parameter(i + 1);
+                update.setAssignment(updateColumns[i], updateParameters[i]);
+            }
+            update.setCondition(getRowIdCondition());
+            update.prepare();
+        }
+        if (replace) {
+            delete = new Delete(session);
+            delete.setTableFilter(new TableFilter(session, table, null, true, null));
+            delete.setCondition(getRowIdCondition());
+            delete.prepare();
+        }
+    }
+
+    // 主键在前，然后按创建的顺序是其他唯一索引
+    private Index[] getUniqueIndexes() {
+        ArrayList<Index> indexes = new ArrayList<>();
+        Index pk = table.findPrimaryKey();
+        if (pk != null)
+            indexes.add(pk);
+        for (Index index : table.getIndexes()) {
+            if (index != pk && index.getIndexType().isUnique())
+                indexes.add(index);
+        }
+        return indexes.toArray(new Index[indexes.size()]);
+    }
+
+    private Expression getRowIdCondition() {
+        Expression column = new ExpressionColumn(session.getDatabase(), table.getSchema().getName(),
+                null, Column.ROWID);
+        return new Comparison(session, Comparison.EQUAL, column, rowIdParameter);
+    }
+
+    // 按表的所有列生成要插入的记录，没有值的列使用默认值
+    private Row createRow(Value[] values) {
+        Row row = table.getTemplateRow();
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i] != null)
+                row.setValue(columns[i].getColumnId(), values[i]);
+        }
+        table.validateConvertUpdateSequence(session, row);
+        return row;
+    }
+
+    private void insertRow(Row row) {
+        for (int i = 0; i < insertParameters.length; i++) {
+            insertParameters[i].setValue(row.getValue(i));
+        }
+        updateCount += insert.update();
+    }
+
+    // 更新第一条冲突的记录，没有找到时返回false，重新插入
+    private boolean updateConflict(Row row) {
+        for (Index index : uniqueIndexes) {
+            Row old = findConflict(row, index);
+            if (old != null) {
+                updateRow(row, old);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 在找到的记录上计算新值，跟原来的值都相同时不需要更新
+    private void updateRow(Row row, Row old) {
+        for (Map.Entry<Column, Parameter> e : valuesParameters.entrySet()) {
+            e.getValue().setValue(row.getValue(e.getKey().getColumnId()));
+        }
+        updateFilter.set(old);
+        boolean changed = false;
+        for (int i = 0; i < updateColumns.length; i++) {
+            Column column = updateColumns[i];
+            Expression e = updateExpressions[i];
+            Value v;
+            if (e == ValueExpression.getDefault()) {
+                Expression defaultExpression = column.getDefaultExpression();
+                v = defaultExpression == null ? ValueNull.INSTANCE : defaultExpression.getValue(session);
+            } else {
+                v = e.getValue(session);
+            }
+            v = column.convert(v);
+            updateParameters[i].setValue(v);
+            if (!changed && !v.equals(old.getValue(column.getColumnId())))
+                changed = true;
+        }
+        if (!changed) {
+            if (foundRows)
+                updateCount += 1;
+            return;
+        }
+        rowIdParameter.setValue(ValueLong.get(old.getKey()));
+        if (update.update() == 0) {
+            // 查找之后被其他事务删除了，当成唯一索引冲突处理，重新插入或查找
+            throw DbException.get(ErrorCode.DUPLICATE_KEY_1, table.getSQL());
+        }
+        updateCount += 2;
+    }
+
+    // 一条记录可能同时跟多个唯一索引冲突，删除后用后面的索引就不会再找到它
+    private int deleteConflicts(Row row) {
+        int deleted = 0;
+        for (Index index : uniqueIndexes) {
+            Row old = findConflict(row, index);
+            if (old != null) {
+                rowIdParameter.setValue(ValueLong.get(old.getKey()));
+                deleted += delete.update();
+            }
+        }
+        return deleted;
+    }
+
+    // 查找在这个唯一索引上跟row冲突的记录，键值中有NULL时不会冲突
+    private Row findConflict(Row row, Index index) {
+        Row search = table.getTemplateRow();
+        for (Column c : index.getColumns()) {
+            Value v = row.getValue(c.getColumnId());
+            if (v == null || v == ValueNull.INSTANCE)
+                return null;
+            search.setValue(c.getColumnId(), v);
+        }
+        Cursor cursor = index.find(session, search, search);
+        return cursor.next() ? cursor.get() : null;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.session.ServerSession;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.ManipulationStatement;
+
+/**
+ * This class represents the statement
+ * KILL [CONNECTION | QUERY] processlist_id
+ *
+ * 要结束的是其他客户端连接，所以由MySQLServerConnection来执行，这里只保存语句的参数。
+ */
+public class MySQLKill extends ManipulationStatement {
+
+    private long connectionId;
+    private boolean query;
+
+    public MySQLKill(ServerSession session) {
+        super(session);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.NO_OPERATION;
+    }
+
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    public void setConnectionId(long connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * 为true时只取消正在执行的语句，否则关闭整个连接
+     */
+    public boolean isQuery() {
+        return query;
+    }
+
+    public void setQuery(boolean query) {
+        this.query = query;
+    }
+
+    @Override
+    public int update() {
+        throw DbException.getUnsupportedException("KILL without client connection");
+    }
+}
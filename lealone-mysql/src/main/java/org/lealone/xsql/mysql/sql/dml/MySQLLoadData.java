@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.Table;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueString;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.ManipulationStatement;
+
+/**
+ * This class represents the statement
+ * LOAD DATA [LOCAL] INFILE
+ *
+ * 数据按块追加，解析出来的记录每batchSize条插入一次，所有记录都使用同一个MySQLInsert，
+ * 它只在第一次执行时准备一个带参数的INSERT，之后每条记录只需要绑定参数。
+ * 设置了commitRows时每插入这么多条记录就提交一次。
+ * LOCAL的数据由客户端通过网络发送过来，所以由MySQLServerConnection调用begin、append和end，
+ * 服务器端的文件直接在update中读取。
+ */
+public class MySQLLoadData extends ManipulationStatement {
+
+    public static final int DUPLICATE_ERROR = 0;
+    public static final int DUPLICATE_REPLACE = 1;
+    public static final int DUPLICATE_IGNORE = 2;
+
+    private String fileName;
+    private boolean local;
+    private int duplicateHandling = DUPLICATE_ERROR;
+    private Table table;
+    private Column[] columns;
+    private Charset charset = StandardCharsets.UTF_8;
+    private String fieldsTerminatedBy = "\t";
+    private String enclosedBy = "";
+    private String escapedBy = "\\";
+    private String linesStartingBy = "";
+    private String linesTerminatedBy = "\n";
+    private long ignoreLines;
+
+    private int batchSize = 1000;
+    private int commitRows;
+
+    // 执行时的状态
+    private LoadDataParser parser;
+    private MySQLInsert insert;
+    private final ArrayList<Value[]> rows = new ArrayList<>();
+    private long skippedLines;
+    private long uncommittedRows;
+    private int updateCount;
+
+    public MySQLLoadData(ServerSession session) {
+        super(session);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.INSERT;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    public void setLocal(boolean local) {
+        this.local = local;
+    }
+
+    public void setDuplicateHandling(int duplicateHandling) {
+        this.duplicateHandling = duplicateHandling;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public void setColumns(Column[] columns) {
+        this.columns = columns;
+    }
+
+    public void setCharset(String charsetName) {
+        charset = getCharset(charsetName);
+    }
+
+    // 把MySQL的字符集名转成Java的字符集
+    static Charset getCharset(String charsetName) {
+        switch (charsetName.toLowerCase()) {
+        case "utf8":
+        case "utf8mb3":
+        case "utf8mb4":
+            return StandardCharsets.UTF_8;
+        case "latin1":
+            return Charset.forName("windows-1252");
+        case "binary":
+            return StandardCharsets.ISO_8859_1;
+        default:
+            return Charset.forName(charsetName);
+        }
+    }
+
+    public void setFieldsTerminatedBy(String s) {
+        fieldsTerminatedBy = s;
+    }
+
+    public void setEnclosedBy(String s) {
+        enclosedBy = s;
+    }
+
+    public void setEscapedBy(String s) {
+        escapedBy = s;
+    }
+
+    public void setLinesStartingBy(String s) {
+        linesStartingBy = s;
+    }
+
+    public void setLinesTerminatedBy(String s) {
+        linesTerminatedBy = s;
+    }
+
+    public void setIgnoreLines(long ignoreLines) {
+        this.ignoreLines = ignoreLines;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * 只有在语句之外执行时才能分段提交，0表示由调用者负责提交
+     */
+    public void setCommitRows(int commitRows) {
+        this.commitRows = commitRows;
+    }
+
+    @Override
+    public int update() {
+        if (local) {
+            throw DbException.getUnsupportedException("LOAD DATA LOCAL INFILE without client");
+        }
+        begin();
+        try (InputStream in = openFile()) {
+            byte[] buff = new byte[64 * 1024];
+            for (int n; (n = in.read(buff)) > 0;) {
+                append(buff, 0, n);
+            }
+        } catch (IOException e) {
+            parser = null;
+            rows.clear();
+            throw DbException.convertIOException(e, fileName);
+        }
+        return end();
+    }
+
+    /**
+     * 打开服务器上要导入的文件，需要管理员权限，并且只能读secure_file_priv目录中的文件
+     */
+    public InputStream openFile() throws IOException {
+        session.getUser().checkAdmin();
+        return new FileInputStream(SecureFilePriv.getFile(fileName));
+    }
+
+    public void begin() {
+        if (columns == null)
+            columns = table.getColumns();
+        rows.clear();
+        skippedLines = 0;
+        uncommittedRows = 0;
+        updateCount = 0;
+        parser = new LoadDataParser(charset, fieldsTerminatedBy, enclosedBy, escapedBy, linesStartingBy,
+                linesTerminatedBy, this::addRow);
+    }
+
+    public void append(byte[] bytes, int offset, int length) {
+        parser.append(bytes, offset, length);
+    }
+
+    public int end() {
+        parser.end();
+        parser = null;
+        insertRows();
+        return updateCount;
+    }
+
+    private void addRow(String[] fields) {
+        if (skippedLines < ignoreLines) {
+            skippedLines++;
+            return;
+        }
+        Value[] row = new Value[columns.length];
+        for (int i = 0; i < row.length; i++) {
+            // 缺少的字段为null，插入时使用默认值，多出来的字段忽略
+            if (i < fields.length) {
+                String v = fields[i];
+                row[i] = v == null ? ValueNull.INSTANCE : ValueString.get(v);
+            }
+        }
+        rows.add(row);
+        if (rows.size() >= batchSize)
+            insertRows();
+    }
+
+    private void insertRows() {
+        if (rows.isEmpty())
+            return;
+        updateCount += getInsert().insertRows(rows);
+        uncommittedRows += rows.size();
+        rows.clear();
+        if (commitRows > 0 && uncommittedRows >= commitRows) {
+            session.commit();
+            uncommittedRows = 0;
+        }
+    }
+
+    // REPLACE和IGNORE跟REPLACE语句和INSERT IGNORE一样逐行处理冲突的记录，默认的方式冲突时出错
+    private MySQLInsert getInsert() {
+        if (insert == null) {
+            insert = new MySQLInsert(session);
+            insert.setTable(table);
+            insert.setColumns(columns);
+            insert.setReplace(duplicateHandling == DUPLICATE_REPLACE);
+            insert.setIgnore(duplicateHandling == DUPLICATE_IGNORE);
+        }
+        return insert;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.result.ResultTarget;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.ManipulationStatement;
+import org.lealone.sql.query.Query;
+
+/**
+ * This class represents the statement
+ * SELECT ... INTO OUTFILE
+ *
+ * 查询产生的记录直接按FIELDS和LINES选项写到服务器上的文件中，
+ * 不需要先生成完整的结果集，也不需要编码成MySQL协议的行数据包。
+ * 文件的格式跟LOAD DATA INFILE使用相同的选项时读取的格式一致。
+ */
+public class MySQLSelectIntoOutfile extends ManipulationStatement implements ResultTarget {
+
+    private final Query query;
+    private String fileName;
+    private Charset charset = StandardCharsets.UTF_8;
+    private String fieldsTerminatedBy = "\t";
+    private String enclosedBy = "";
+    private boolean optionallyEnclosed;
+    private String escapedBy = "\\";
+    private String linesStartingBy = "";
+    private String linesTerminatedBy = "\n";
+
+    private Writer writer;
+    private int rowCount;
+
+    public MySQLSelectIntoOutfile(ServerSession session, Query query) {
+        super(session);
+        this.query = query;
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.SELECT;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public void setCharset(String charsetName) {
+        charset = MySQLLoadData.getCharset(charsetName);
+    }
+
+    public void setFieldsTerminatedBy(String s) {
+        fieldsTerminatedBy = s;
+    }
+
+    public void setEnclosedBy(String s, boolean optionally) {
+        enclosedBy = s;
+        optionallyEnclosed = optionally;
+    }
+
+    public void setEscapedBy(String s) {
+        escapedBy = s;
+    }
+
+    public void setLinesStartingBy(String s) {
+        linesStartingBy = s;
+    }
+
+    public void setLinesTerminatedBy(String s) {
+        linesTerminatedBy = s;
+    }
+
+    @Override
+    public int update() {
+        // 写服务器上的文件需要管理员权限，只能写secure_file_priv目录中的文件
+        session.getUser().checkAdmin();
+        Path path = SecureFilePriv.getFile(fileName).toPath();
+        rowCount = 0;
+        // 不能覆盖已经存在的文件，用CREATE_NEW在创建时原子地检查
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                charset), 64 * 1024)) {
+            writer = w;
+            query.query(0, this);
+        } catch (FileAlreadyExistsException e) {
+            throw DbException.get(ErrorCode.FILE_CREATION_FAILED_1, fileName + " already exists");
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        } finally {
+            writer = null;
+        }
+        return rowCount;
+    }
+
+    @Override
+    public void addRow(Value[] values) {
+        rowCount++;
+        try {
+            Writer w = writer;
+            w.write(linesStartingBy);
+            for (int i = 0, len = query.getColumnCount(); i < len; i++) {
+                if (i > 0)
+                    w.write(fieldsTerminatedBy);
+                writeValue(w, values[i]);
+            }
+            w.write(linesTerminatedBy);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    private void writeValue(Writer w, Value v) throws IOException {
+        if (v == null || v == ValueNull.INSTANCE) {
+            w.write(escapedBy.isEmpty() ? "NULL" : escapedBy + "N");
+            return;
+        }
+        boolean enclose = !enclosedBy.isEmpty() && (!optionallyEnclosed || isString(v.getType()));
+        if (enclose)
+            w.write(enclosedBy);
+        String s = v.getString();
+        if (escapedBy.isEmpty()) {
+            w.write(s);
+        } else {
+            char escape = escapedBy.charAt(0);
+            for (int i = 0, len = s.length(); i < len; i++) {
+                char c = s.charAt(i);
+                if (c == 0) {
+                    w.write(escape);
+                    w.write('0');
+                    continue;
+                }
+                if (needEscape(c, enclose))
+                    w.write(escape);
+                w.write(c);
+            }
+        }
+        if (enclose)
+            w.write(enclosedBy);
+    }
+
+    // 跟MySQL一样，转义字符、包围字符，以及没有包围时分隔符的第一个字符都需要转义
+    private boolean needEscape(char c, boolean enclosed) {
+        if (c == escapedBy.charAt(0))
+            return true;
+        if (enclosed)
+            return c == enclosedBy.charAt(0);
+        return (!fieldsTerminatedBy.isEmpty() && c == fieldsTerminatedBy.charAt(0))
+                || (!linesTerminatedBy.isEmpty() && c == linesTerminatedBy.charAt(0));
+    }
+
+    private static boolean isString(int type) {
+        switch (type) {
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+        case Value.CLOB:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.table.Table;
+import org.lealone.db.value.Value;
+import org.lealone.sql.SQLStatement;
+import org.lealone.sql.dml.ManipulationStatement;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.Parameter;
+import org.lealone.sql.expression.ValueExpression;
+import org.lealone.xsql.mysql.sql.MySQLParser;
+
+/**
+ * 很大的多行INSERT，VALUES列表只包含常量、参数和DEFAULT。
+ *
+ * 解析时只检查一遍语法，不保存每一行的表达式，执行时从VALUES列表的开始重新解析，
+ * 每解析出batchSize行就插入一次，所以内存中最多只有一批记录。
+ * 所有记录都使用同一个MySQLInsert，它只准备一次带参数的INSERT，之后每一行只需要绑定参数。
+ */
+public class MySQLStreamingInsert extends ManipulationStatement {
+
+    private Table table;
+    private Column[] columns;
+    private String sql;
+    private int valuesStart;
+    private List<Parameter> valuesParameters;
+    private int batchSize = 1000;
+
+    // 执行时的状态
+    private MySQLInsert insert;
+    private final ArrayList<Value[]> rows = new ArrayList<>();
+    private int updateCount;
+
+    public MySQLStreamingInsert(ServerSession session) {
+        super(session);
+    }
+
+    @Override
+    public int getType() {
+        return SQLStatement.INSERT;
+    }
+
+    public void setTable(Table table) {
+        this.table = table;
+    }
+
+    public void setColumns(Column[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param sql 原始的SQL语句
+     * @param valuesStart VALUES列表中第一个左括号的位置
+     * @param valuesParameters VALUES列表中的参数
+     */
+    public void setValues(String sql, int valuesStart, List<Parameter> valuesParameters) {
+        this.sql = sql;
+        this.valuesStart = valuesStart;
+        this.valuesParameters = valuesParameters;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public int update() {
+        updateCount = 0;
+        try {
+            MySQLParser parser = new MySQLParser(session);
+            parser.parseValuesRows(sql, valuesStart, valuesParameters, columns.length, this::addRow);
+            insertRows();
+        } finally {
+            rows.clear();
+        }
+        return updateCount;
+    }
+
+    // 常量和参数在这里求值，DEFAULT用null表示，插入时使用默认值
+    private void addRow(Expression[] row) {
+        Value[] values = new Value[row.length];
+        for (int i = 0; i < row.length; i++) {
+            Expression e = row[i];
+            if (e != null && e != ValueExpression.getDefault())
+                values[i] = e.getValue(session);
+        }
+        rows.add(values);
+        if (rows.size() >= batchSize)
+            insertRows();
+    }
+
+    private void insertRows() {
+        if (rows.isEmpty())
+            return;
+        if (insert == null) {
+            insert = new MySQLInsert(session);
+            insert.setTable(table);
+            insert.setColumns(columns);
+        }
+        updateCount += insert.insertRows(rows);
+        rows.clear();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.sql.dml;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.xsql.mysql.server.protocol.ErrorCode;
+
+/**
+ * 对应MySQL的secure_file_priv，设置后LOAD DATA INFILE和SELECT ... INTO OUTFILE只能读写这个目录下的文件。
+ *
+ * 由MySQLServer按配置设置，语句执行时自己检查，不管语句是从哪里执行的都不能绕过。
+ */
+public class SecureFilePriv {
+
+    private static volatile String directory;
+
+    private SecureFilePriv() {
+    }
+
+    public static String getDirectory() {
+        return directory;
+    }
+
+    public static void setDirectory(String directory) {
+        SecureFilePriv.directory = directory;
+    }
+
+    /**
+     * 返回要读写的服务器文件，相对路径相对于secure_file_priv目录，
+     * 不在这个目录中时抛出ER_OPTION_PREVENTS_STATEMENT
+     */
+    static File getFile(String fileName) {
+        File file = new File(fileName);
+        String dir = directory;
+        if (dir == null)
+            return file;
+        if (!file.isAbsolute())
+            file = new File(dir, fileName);
+        try {
+            // 用规范路径比较和读写，路径中的..和符号链接不能跳出这个目录
+            file = file.getCanonicalFile();
+            String dirPath = new File(dir).getCanonicalPath();
+            if (!dirPath.endsWith(File.separator))
+                dirPath += File.separator;
+            if (file.getPath().startsWith(dirPath))
+                return file;
+        } catch (IOException e) {
+            // 按不允许处理
+        }
+        throw DbException.convert(new SQLException("The MySQL server is running "
+                + "with the --secure-file-priv option so it cannot execute this statement", "HY000",
+                ErrorCode.ER_OPTION_PREVENTS_STATEMENT));
+    }
+}
@@ -17,8 +17,39 @@
  */
 package org.lealone.xsql.mysql.sql.expression;
 
+import java.sql.Connection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.session.Session;
+
 public class MySQLFunction {
-    public static int getConnectionId() {
-        return 0;
+
+    // 旧版本创建的CONNECTION_ID是DETERMINISTIC的，结果会在预处理时被当成常量，所以升级后要先删除再创建
+    private static final String DROP_CONNECTION_ID = "DROP ALIAS IF EXISTS CONNECTION_ID";
+    private static final String CREATE_CONNECTION_ID = "CREATE ALIAS IF NOT EXISTS CONNECTION_ID FOR "
+            + "\"org.lealone.xsql.mysql.sql.expression.MySQLFunction.getConnectionId\"";
+
+    // 会话属于哪个MySQL连接，由连接在得到和放回会话时维护
+    private static final ConcurrentHashMap<Session, Integer> connectionIds = new ConcurrentHashMap<>();
+
+    public static void registerFunctions(ServerSession session) {
+        session.prepareStatementLocal(DROP_CONNECTION_ID).executeUpdate();
+        session.prepareStatementLocal(CREATE_CONNECTION_ID).executeUpdate();
+    }
+
+    public static void setConnectionId(Session session, int connectionId) {
+        connectionIds.put(session, connectionId);
+    }
+
+    public static void removeConnectionId(Session session) {
+        connectionIds.remove(session);
+    }
+
+    // 第一个参数是java.sql.Connection时，调用函数的会话的连接会自动传进来
+    public static int getConnectionId(Connection conn) {
+        Integer id = connectionIds.get(((JdbcConnection) conn).getSession());
+        return id == null ? 0 : id;
     }
 }
@@ -20,10 +20,16 @@ package org.lealone.xsql.mysql.sql.expression;
 import org.lealone.db.session.ServerSession;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueNull;
 import org.lealone.sql.expression.Variable;
 
 public class MySQLVariable extends Variable {
 
+    // 跟MySQL 8一样，值为NONE时不发送结果集的字段定义(需要客户端支持CLIENT_OPTIONAL_RESULTSET_METADATA)
+    public static final String RESULTSET_METADATA = "RESULTSET_METADATA";
+    // SELECT语句最多执行多少毫秒，0表示不限制
+    public static final String MAX_EXECUTION_TIME = "MAX_EXECUTION_TIME";
+
     public MySQLVariable(ServerSession session, String name) {
         super(session, name);
     }
@@ -36,6 +42,10 @@ public class MySQLVariable extends Variable {
             return ValueInt.get(-1);
         case "auto_increment_increment":
             return ValueInt.get(1);
+        case "max_execution_time": {
+            Value v = session.getVariable(MAX_EXECUTION_TIME);
+            return v == ValueNull.INSTANCE ? ValueInt.get(0) : v;
+        }
         }
         return super.getValue(session);
     }
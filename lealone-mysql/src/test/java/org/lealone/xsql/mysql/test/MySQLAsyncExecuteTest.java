@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 语句默认异步执行，多个连接同时执行时每个连接的结果都按发送的顺序返回
+public class MySQLAsyncExecuteTest {
+
+    private static final int THREADS = 4;
+    private static final int ROWS = 200;
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists async_execute_test");
+            stmt.executeUpdate("create table async_execute_test(id int primary key, thread int)");
+
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            ArrayList<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    try {
+                        execute(thread);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }));
+            }
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join();
+            if (error.get() != null)
+                throw new AssertionError(error.get());
+            assertEquals(THREADS * ROWS, MySQLJdbcTest.getInt(stmt, "select count(*) from async_execute_test"));
+        }
+    }
+
+    private static void execute(int thread) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                PreparedStatement insert = conn.prepareStatement("insert into async_execute_test values(?, ?)");
+                Statement stmt = conn.createStatement()) {
+            for (int i = 1; i <= ROWS; i++) {
+                insert.setInt(1, thread * ROWS + i);
+                insert.setInt(2, thread);
+                assertEquals(1, insert.executeUpdate());
+                ResultSet rs = stmt.executeQuery("select count(*) from async_execute_test where thread = " + thread);
+                rs.next();
+                assertEquals(i, rs.getInt(1));
+                rs.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Properties;
+
+// 服务器端预处理语句的批量执行，MySQL的驱动对每组参数发送一个COM_STMT_EXECUTE，
+// COM_STMT_BULK_EXECUTE在MySQLBulkExecuteTest中测试
+public class MySQLBatchExecuteTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        info.put("rewriteBatchedStatements", "false");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists batch_execute_test");
+            stmt.executeUpdate("create table batch_execute_test(id int primary key, name varchar(20))");
+
+            PreparedStatement ps = conn.prepareStatement("insert into batch_execute_test values(?, ?)");
+            for (int i = 1; i <= 100; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "name" + i);
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+            assertEquals(100, counts.length);
+            for (int count : counts)
+                assertEquals(1, count);
+            ps.close();
+            assertEquals(100, MySQLJdbcTest.getInt(stmt, "select count(*) from batch_execute_test"));
+        }
+    }
+}
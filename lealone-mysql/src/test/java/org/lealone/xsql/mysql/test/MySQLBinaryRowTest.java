@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+// 服务器端预处理语句的结果用二进制行格式，列数超过8个时NULL位图不止一个字节
+public class MySQLBinaryRowTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        // 按本地时间比较TIMESTAMP，不做时区转换
+        info.put("preserveInstants", "false");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists binary_row_test");
+            stmt.executeUpdate("create table binary_row_test(id int primary key, f1 tinyint, f2 smallint, "
+                    + "f3 bigint, f4 real, f5 double, f6 decimal(10, 2), f7 varchar(20), f8 date, f9 time, "
+                    + "f10 timestamp, f11 boolean, f12 varbinary(10))");
+            stmt.executeUpdate("insert into binary_row_test values(1, 1, 2, 3, 1.5, 2.5, 3.25, 'abc', "
+                    + "'2021-01-02', '10:11:12', '2021-01-02 10:11:12', true, X'0102')");
+            stmt.executeUpdate("insert into binary_row_test(id) values(2)");
+            stmt.executeUpdate("insert into binary_row_test(id, f12) values(3, X'')");
+
+            PreparedStatement ps = conn.prepareStatement("select * from binary_row_test where id = ?");
+            ps.setInt(1, 1);
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals(1, rs.getByte(2));
+            assertEquals(2, rs.getShort(3));
+            assertEquals(3L, rs.getLong(4));
+            assertEquals(1.5f, rs.getFloat(5), 0);
+            assertEquals(2.5d, rs.getDouble(6), 0);
+            assertEquals(new BigDecimal("3.25"), rs.getBigDecimal(7));
+            assertEquals("abc", rs.getString(8));
+            assertEquals(Date.valueOf("2021-01-02"), rs.getDate(9));
+            assertEquals(Time.valueOf("10:11:12"), rs.getTime(10));
+            assertEquals(Timestamp.valueOf("2021-01-02 10:11:12"), rs.getTimestamp(11));
+            assertTrue(rs.getBoolean(12));
+            assertArrayEquals(new byte[] { 1, 2 }, rs.getBytes(13));
+            assertFalse(rs.next());
+            rs.close();
+
+            // 除了主键都是NULL
+            ps.setInt(1, 2);
+            rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            for (int i = 2; i <= 13; i++) {
+                assertNull(rs.getObject(i));
+            }
+            rs.close();
+
+            // 空的二进制值跟NULL不一样
+            ps.setInt(1, 3);
+            rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertNull(rs.getObject(12));
+            assertEquals(0, rs.getBytes(13).length);
+            rs.close();
+            ps.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.lealone.xsql.mysql.server.MySQLServer;
+
+// COM_STMT_BULK_EXECUTE只有MariaDB的驱动会发送，这里直接用socket发送手工构造的包
+public class MySQLBulkExecuteTest {
+
+    private static final int COM_QUERY = 3;
+    private static final int COM_STMT_PREPARE = 22;
+    private static final int COM_STMT_BULK_EXECUTE = 0xfa;
+
+    private static final int SEND_TYPES_TO_SERVER = 128;
+    private static final int FIELD_TYPE_LONG = 3;
+    private static final int FIELD_TYPE_VAR_STRING = 253;
+
+    private static final int ER_UNKNOWN_STMT_HANDLER = 1243;
+
+    public static void main(String[] args) throws Exception {
+        try (Socket socket = new Socket("localhost", MySQLServer.DEFAULT_PORT)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            MySQLPipelineTest.login(in, out);
+
+            executeUpdate(in, out, "drop table if exists bulk_execute_test");
+            executeUpdate(in, out, "create table bulk_execute_test(id int primary key, name varchar(20))");
+            int statementId = prepare(in, out, "insert into bulk_execute_test values(?, ?)");
+
+            ByteArrayOutputStream rows = new ByteArrayOutputStream();
+            for (int i = 1; i <= 3; i++) {
+                rows.write(0); // INDICATOR_NONE
+                MySQLPipelineTest.writeInt(rows, i);
+                if (i == 3) {
+                    rows.write(1); // INDICATOR_NULL
+                } else {
+                    byte[] name = ("name" + i).getBytes(StandardCharsets.UTF_8);
+                    rows.write(0);
+                    rows.write(name.length);
+                    rows.write(name);
+                }
+            }
+            byte[] packet = bulkExecute(in, out, statementId, rows.toByteArray());
+            assertEquals(0, packet[0]);
+            assertEquals(3, packet[1]); // 影响的行数
+
+            assertEquals("3", query(in, out, "select count(*) from bulk_execute_test"));
+            assertEquals("1", query(in, out, "select count(*) from bulk_execute_test where name is null"));
+            assertEquals("name2", query(in, out, "select name from bulk_execute_test where id = 2"));
+
+            // 不存在的语句返回ER_UNKNOWN_STMT_HANDLER，连接还能继续使用
+            packet = bulkExecute(in, out, statementId + 1000, rows.toByteArray());
+            assertEquals(0xff, packet[0] & 0xff);
+            assertEquals(ER_UNKNOWN_STMT_HANDLER, (packet[1] & 0xff) | ((packet[2] & 0xff) << 8));
+            assertEquals("3", query(in, out, "select count(*) from bulk_execute_test"));
+        }
+    }
+
+    private static void executeUpdate(DataInputStream in, OutputStream out, String sql)
+            throws IOException {
+        assertEquals("OK", query(in, out, sql));
+    }
+
+    private static String query(DataInputStream in, OutputStream out, String sql) throws IOException {
+        MySQLPipelineTest.writeCommand(out, COM_QUERY, sql);
+        out.flush();
+        return MySQLPipelineTest.readQueryResult(in);
+    }
+
+    // 返回语句id，跳过参数和字段的定义
+    private static int prepare(DataInputStream in, OutputStream out, String sql) throws IOException {
+        MySQLPipelineTest.writeCommand(out, COM_STMT_PREPARE, sql);
+        out.flush();
+        byte[] packet = MySQLPipelineTest.readPacket(in);
+        assertEquals(0, packet[0]);
+        int statementId = (packet[1] & 0xff) | ((packet[2] & 0xff) << 8) | ((packet[3] & 0xff) << 16)
+                | ((packet[4] & 0xff) << 24);
+        int columns = (packet[5] & 0xff) | ((packet[6] & 0xff) << 8);
+        int params = (packet[7] & 0xff) | ((packet[8] & 0xff) << 8);
+        assertEquals(2, params);
+        for (int i = 0; i <= params; i++) // 参数定义和EOF
+            MySQLPipelineTest.readPacket(in);
+        if (columns > 0) {
+            for (int i = 0; i <= columns; i++)
+                MySQLPipelineTest.readPacket(in);
+        }
+        return statementId;
+    }
+
+    private static byte[] bulkExecute(DataInputStream in, OutputStream out, int statementId, byte[] rows)
+            throws IOException {
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        buff.write(COM_STMT_BULK_EXECUTE);
+        MySQLPipelineTest.writeInt(buff, statementId);
+        buff.write(SEND_TYPES_TO_SERVER);
+        buff.write(0);
+        buff.write(FIELD_TYPE_LONG);
+        buff.write(0);
+        buff.write(FIELD_TYPE_VAR_STRING);
+        buff.write(0);
+        buff.write(rows);
+        MySQLPipelineTest.writePacket(out, 0, buff.toByteArray());
+        out.flush();
+        return MySQLPipelineTest.readPacket(in);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// 测试用的lealone.yaml把default_authentication_plugin设成了caching_sha2_password，
+// 第一次用RSA加密密码完整认证，之后走快速认证
+public class MySQLCachingSha2PasswordTest {
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop user if exists sha2_user");
+            stmt.executeUpdate("create user sha2_user password 'sha2_pwd' admin");
+
+            // 缓存中还没有这个用户，服务器要求完整认证，驱动取得公钥后发送加密的密码
+            for (int i = 0; i < 3; i++) {
+                try (Connection conn2 = connect("sha2_pwd", null)) {
+                    assertEquals(1, MySQLJdbcTest.getInt(conn2.createStatement(), "select 1"));
+                }
+            }
+            assertAccessDenied("wrong_pwd", null);
+
+            // 客户端用mysql_native_password时服务器让它切换到caching_sha2_password
+            try (Connection conn2 = connect("sha2_pwd",
+                    "com.mysql.cj.protocol.a.authentication.MysqlNativePasswordPlugin")) {
+                assertEquals(1, MySQLJdbcTest.getInt(conn2.createStatement(), "select 1"));
+            }
+
+            // 修改密码后缓存的旧密码不能再用
+            stmt.executeUpdate("alter user sha2_user set password 'sha2_pwd2'");
+            assertAccessDenied("sha2_pwd", null);
+            try (Connection conn2 = connect("sha2_pwd2", null)) {
+                assertEquals(1, MySQLJdbcTest.getInt(conn2.createStatement(), "select 1"));
+            }
+            stmt.executeUpdate("drop user sha2_user");
+        }
+    }
+
+    private static Connection connect(String password, String plugin) throws Exception {
+        Properties info = new Properties();
+        info.put("user", "sha2_user");
+        info.put("password", password);
+        info.put("allowPublicKeyRetrieval", "true");
+        if (plugin != null)
+            info.put("defaultAuthenticationPlugin", plugin);
+        return MySQLJdbcTest.getMySQLConnection(info);
+    }
+
+    private static void assertAccessDenied(String password, String plugin) throws Exception {
+        try {
+            connect(password, plugin).close();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(1045, e.getErrorCode());
+        }
+    }
+}
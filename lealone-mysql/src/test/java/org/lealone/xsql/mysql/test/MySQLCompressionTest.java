@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+
+// 压缩协议：小包不压缩，大包压缩，压缩后变大的随机数据也要能正确收发
+public class MySQLCompressionTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useCompression", "true");
+        info.put("useServerPrepStmts", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            assertEquals(1, MySQLJdbcTest.getInt(stmt, "select 1"));
+            stmt.executeUpdate("drop table if exists compression_test");
+            stmt.executeUpdate("create table compression_test(id int primary key, data varbinary(1000000))");
+
+            byte[] random = new byte[300 * 1024];
+            new Random(1).nextBytes(random);
+            byte[] zeros = new byte[300 * 1024];
+            PreparedStatement ps = conn.prepareStatement("insert into compression_test values(?, ?)");
+            ps.setInt(1, 1);
+            ps.setBytes(2, random);
+            ps.executeUpdate();
+            ps.setInt(1, 2);
+            ps.setBytes(2, zeros);
+            ps.executeUpdate();
+            ps.close();
+
+            ResultSet rs = stmt.executeQuery("select data from compression_test order by id");
+            assertTrue(rs.next());
+            assertArrayEquals(random, rs.getBytes(1));
+            assertTrue(rs.next());
+            assertArrayEquals(zeros, rs.getBytes(1));
+            rs.close();
+
+            // 很多行的结果集被压缩成多个压缩包
+            int count = 0;
+            rs = stmt.executeQuery("select x, space(100) from system_range(1, 20000)");
+            while (rs.next()) {
+                count++;
+                assertEquals(count, rs.getInt(1));
+            }
+            rs.close();
+            assertEquals(20000, count);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.db.session.ServerSession;
+import org.lealone.xsql.mysql.sql.expression.MySQLFunction;
+
+// 旧版本在数据库中创建的CONNECTION_ID是DETERMINISTIC的，重新注册后每次执行都要返回会话当前所属连接的id
+public class MySQLConnectionIdTest {
+
+    public static void main(String[] args) throws Exception {
+        String url = "jdbc:lealone:embed/connection_id_test";
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP ALIAS IF EXISTS CONNECTION_ID");
+            stmt.executeUpdate("CREATE ALIAS IF NOT EXISTS CONNECTION_ID DETERMINISTIC FOR "
+                    + "\"org.lealone.xsql.mysql.sql.expression.MySQLFunction.getConnectionId\"");
+
+            ServerSession session = (ServerSession) ((JdbcConnection) conn).getSession();
+            MySQLFunction.registerFunctions(session);
+
+            // 会话池中的会话会换到另一个连接上，预处理过的语句不能返回上一个连接的id
+            MySQLFunction.setConnectionId(session, 1);
+            PreparedStatement ps = conn.prepareStatement("select connection_id()");
+            assertEquals(1, getInt(ps));
+            MySQLFunction.setConnectionId(session, 2);
+            assertEquals(2, getInt(ps));
+            ps.close();
+            MySQLFunction.removeConnectionId(session);
+        }
+    }
+
+    private static int getInt(PreparedStatement ps) throws Exception {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+public class MySQLCursorFetchTest {
+
+    public static void main(String[] args) throws Exception {
+        // 行数够多，RowSpool的内存缓冲区放不下时会写到临时文件
+        int rows = 5000;
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists cursor_test");
+            stmt.executeUpdate("create table cursor_test(id int primary key, name varchar(100))");
+            PreparedStatement ps = conn.prepareStatement("insert into cursor_test values(?, ?)");
+            for (int i = 1; i <= rows; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "name-" + i + "-0123456789012345678901234567890123456789");
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+        }
+
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        info.put("useCursorFetch", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info)) {
+            PreparedStatement ps = conn
+                    .prepareStatement("select id, name from cursor_test where id > ? order by id");
+            ps.setFetchSize(100);
+            ps.setInt(1, 0);
+            int count = 0;
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                count++;
+                assertEquals(count, rs.getInt(1));
+                assertEquals("name-" + count + "-0123456789012345678901234567890123456789", rs.getString(2));
+            }
+            rs.close();
+            assertEquals(rows, count);
+
+            // 再次执行时关闭上一个游标
+            ps.setInt(1, rows);
+            rs = ps.executeQuery();
+            assertFalse(rs.next());
+            rs.close();
+            ps.close();
+
+            // 执行到一半出错时返回错误，不会打开游标
+            ps = conn.prepareStatement("select 1 / (id - 10) from cursor_test where id > ?");
+            ps.setFetchSize(100);
+            ps.setInt(1, 0);
+            try {
+                ps.executeQuery();
+                fail();
+            } catch (SQLException e) {
+                // 除数为0
+            }
+            ps.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Properties;
+
+// 预处理语句的字段定义编码后缓存起来，字段类型变了之后要重新编码
+public class MySQLFieldDefinitionCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists field_definition_test");
+            stmt.executeUpdate("create table field_definition_test(id int primary key, v int)");
+            stmt.executeUpdate("insert into field_definition_test values(1, 10)");
+
+            PreparedStatement ps = conn
+                    .prepareStatement("select id, v as value from field_definition_test where id = ?");
+            ps.setInt(1, 1);
+            for (int i = 0; i < 3; i++) {
+                ResultSet rs = ps.executeQuery();
+                ResultSetMetaData md = rs.getMetaData();
+                assertEquals("id", md.getColumnName(1).toLowerCase());
+                assertEquals("value", md.getColumnLabel(2).toLowerCase());
+                assertEquals(Types.INTEGER, md.getColumnType(2));
+                assertTrue(rs.next());
+                assertEquals(10, rs.getInt(2));
+                rs.close();
+            }
+
+            stmt.executeUpdate("alter table field_definition_test alter column v varchar(20)");
+            stmt.executeUpdate("update field_definition_test set v = 'abc' where id = 1");
+            ResultSet rs = ps.executeQuery();
+            assertEquals(Types.VARCHAR, rs.getMetaData().getColumnType(2));
+            assertTrue(rs.next());
+            assertEquals("abc", rs.getString(2));
+            rs.close();
+            ps.close();
+        }
+    }
+}
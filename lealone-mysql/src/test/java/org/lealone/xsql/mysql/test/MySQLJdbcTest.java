@@ -33,7 +33,17 @@ public class MySQLJdbcTest {
         return getMySQLConnection(true, MySQLServer.DEFAULT_PORT);
     }
 
+    // info中的属性会覆盖默认的连接属性
+    public static Connection getMySQLConnection(Properties info) throws Exception {
+        return getMySQLConnection(true, MySQLServer.DEFAULT_PORT, info);
+    }
+
     public static Connection getMySQLConnection(boolean autoCommit, int port) throws Exception {
+        return getMySQLConnection(autoCommit, port, new Properties());
+    }
+
+    public static Connection getMySQLConnection(boolean autoCommit, int port, Properties props)
+            throws Exception {
         // String driver = "com.mysql.jdbc.Driver";
         // Class.forName(driver);
 
@@ -55,12 +65,27 @@ public class MySQLJdbcTest {
         info.put("rewriteBatchedStatements", "true");
         info.put("useCompression", "true");
         info.put("serverTimezone", "GMT");
+        info.putAll(props);
 
         Connection conn = DriverManager.getConnection(url, info);
         conn.setAutoCommit(autoCommit);
         return conn;
     }
 
+    public static int getInt(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    public static String getString(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
     public static void sqlException(SQLException e) {
         while (e != null) {
             System.err.println("SQLException:" + e);
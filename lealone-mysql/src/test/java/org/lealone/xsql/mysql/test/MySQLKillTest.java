@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+
+// CONNECTION_ID()、max_execution_time、KILL QUERY和KILL CONNECTION
+public class MySQLKillTest {
+
+    private static final String SLOW_QUERY = "select count(*) from system_range(1, 100000) a, "
+            + "system_range(1, 100000) b";
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists kill_test");
+            stmt.executeUpdate("create table kill_test(id int primary key)");
+            testConnectionId(stmt);
+            testMaxExecutionTime(stmt);
+            testKillQuery(stmt);
+            testKillConnection(stmt);
+        }
+    }
+
+    private static void testConnectionId(Statement stmt) throws Exception {
+        int id = MySQLJdbcTest.getInt(stmt, "select connection_id()");
+        assertTrue(id > 0);
+        try (Connection conn2 = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt2 = conn2.createStatement()) {
+            assertNotEquals(id, MySQLJdbcTest.getInt(stmt2, "select connection_id()"));
+        }
+        assertEquals(id, MySQLJdbcTest.getInt(stmt, "select connection_id()"));
+    }
+
+    private static void testMaxExecutionTime(Statement stmt) throws Exception {
+        assertErrorCode(3024, () -> MySQLJdbcTest.getInt(stmt,
+                SLOW_QUERY.replace("select", "select /*+ MAX_EXECUTION_TIME(100) */")));
+        stmt.executeUpdate("set max_execution_time = 100");
+        assertEquals(100, MySQLJdbcTest.getInt(stmt, "select @@max_execution_time"));
+        assertErrorCode(3024, () -> MySQLJdbcTest.getInt(stmt, SLOW_QUERY));
+        stmt.executeUpdate("set max_execution_time = 0");
+        // 超时的语句结束后连接还能继续使用
+        assertEquals(1, MySQLJdbcTest.getInt(stmt, "select 1"));
+    }
+
+    private static void testKillQuery(Statement stmt) throws Exception {
+        try (Connection conn2 = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt2 = conn2.createStatement()) {
+            int id = MySQLJdbcTest.getInt(stmt2, "select connection_id()");
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread t = runSlowQuery(stmt2, 1317, error);
+            Thread.sleep(500);
+            stmt.executeUpdate("kill query " + id);
+            join(t, error);
+            // 只结束语句，连接还能继续使用
+            assertEquals(1, MySQLJdbcTest.getInt(stmt2, "select 1"));
+        }
+        assertErrorCode(1094, () -> stmt.executeUpdate("kill query 999999999"));
+    }
+
+    private static void testKillConnection(Statement stmt) throws Exception {
+        Connection conn2 = MySQLJdbcTest.getMySQLConnection();
+        Statement stmt2 = conn2.createStatement();
+        int id = MySQLJdbcTest.getInt(stmt2, "select connection_id()");
+        conn2.setAutoCommit(false);
+        stmt2.executeUpdate("insert into kill_test values(1)");
+        // 结束正在执行语句的连接，语句结束后才关闭连接并回滚事务
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread t = runSlowQuery(stmt2, 0, error);
+        Thread.sleep(500);
+        stmt.executeUpdate("kill connection " + id);
+        join(t, error);
+        try {
+            stmt2.executeQuery("select 1");
+            fail();
+        } catch (SQLException e) {
+            // 连接已经被服务器关闭
+        }
+        conn2.close();
+        for (int i = 0; i < 50; i++) {
+            try {
+                assertEquals(1, stmt.executeUpdate("insert into kill_test values(1)"));
+                break;
+            } catch (SQLException e) {
+                if (i == 49)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    // 在另一个线程中执行慢查询，errorCode为0时只要求语句出错
+    private static Thread runSlowQuery(Statement stmt, int errorCode, AtomicReference<Throwable> error) {
+        Thread t = new Thread(() -> {
+            try {
+                assertErrorCode(errorCode, () -> MySQLJdbcTest.getInt(stmt, SLOW_QUERY));
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void join(Thread t, AtomicReference<Throwable> error) throws Exception {
+        t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+
+    private static void assertErrorCode(int errorCode, Task task) throws Exception {
+        try {
+            task.run();
+            fail();
+        } catch (SQLException e) {
+            if (errorCode != 0)
+                assertEquals(errorCode, e.getErrorCode());
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+}
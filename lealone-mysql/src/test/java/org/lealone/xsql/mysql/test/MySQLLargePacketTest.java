@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+
+// 包体大于等于0xFFFFFF的请求和响应要拆成多个包，测试用的lealone.yaml把max_allowed_packet设成了32M
+public class MySQLLargePacketTest {
+
+    private static final int MAX_ALLOWED_PACKET = 32 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("maxAllowedPacket", String.valueOf(MAX_ALLOWED_PACKET * 2));
+        info.put("useCompression", "false");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists large_packet_test");
+            stmt.executeUpdate("create table large_packet_test(id int primary key, data blob)");
+            testLargePacket(conn, 17 * 1024 * 1024);
+            // 加上语句的其他参数后包体长度接近0xFFFFFF
+            testLargePacket(conn, 0xFFFFFF - 100);
+        }
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info)) {
+            testPacketTooLarge(conn);
+        }
+    }
+
+    private static void testLargePacket(Connection conn, int size) throws Exception {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'a');
+        data[size - 1] = 'b';
+        PreparedStatement ps = conn.prepareStatement("insert into large_packet_test values(?, ?)");
+        ps.setInt(1, size);
+        ps.setBytes(2, data);
+        assertEquals(1, ps.executeUpdate());
+        ps.close();
+
+        ps = conn.prepareStatement("select data from large_packet_test where id = ?");
+        ps.setInt(1, size);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        byte[] result = rs.getBytes(1);
+        assertEquals(size, result.length);
+        assertEquals('b', result[size - 1]);
+        rs.close();
+        ps.close();
+    }
+
+    private static void testPacketTooLarge(Connection conn) throws Exception {
+        byte[] data = new byte[MAX_ALLOWED_PACKET + 1024];
+        try (PreparedStatement ps = conn.prepareStatement("insert into large_packet_test values(?, ?)")) {
+            ps.setInt(1, 1);
+            ps.setBytes(2, data);
+            ps.executeUpdate();
+            fail();
+        } catch (SQLException e) {
+            // 服务器返回ER_NET_PACKET_TOO_LARGE后关闭连接，驱动可能只看到连接被关闭
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// 结果集比通道的高水位大很多，客户端读得慢时服务器要暂停写，读完后得到完整的结果；
+// 暂停时客户端断开，服务器要关闭连接并释放暂停的结果
+public class MySQLLargeResultTest {
+
+    private static final int ROWS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists large_result_test");
+            stmt.executeUpdate("create table large_result_test(id int primary key, name varchar(300))");
+            String name = getName();
+            PreparedStatement ps = conn.prepareStatement("insert into large_result_test values(?, ?)");
+            for (int i = 1; i <= ROWS; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, name);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+
+            testSlowReader(conn);
+            testCloseWhilePaused(stmt);
+            // 暂停后连接还能继续执行后面的语句
+            assertEquals(ROWS, MySQLJdbcTest.getInt(stmt, "select count(*) from large_result_test"));
+        }
+    }
+
+    private static String getName() {
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < 25; i++) {
+            buff.append("0123456789");
+        }
+        return buff.toString();
+    }
+
+    // fetchSize为Integer.MIN_VALUE时驱动边读边返回记录，读第一条记录后停一会，服务器就会暂停写
+    private static ResultSet executeStreamingQuery(Connection conn) throws Exception {
+        Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(Integer.MIN_VALUE);
+        ResultSet rs = stmt.executeQuery("select id, name from large_result_test order by id");
+        rs.next();
+        Thread.sleep(500);
+        return rs;
+    }
+
+    private static void testSlowReader(Connection conn) throws Exception {
+        String name = getName();
+        ResultSet rs = executeStreamingQuery(conn);
+        int count = 1;
+        assertEquals(1, rs.getInt(1));
+        while (rs.next()) {
+            count++;
+            assertEquals(count, rs.getInt(1));
+            assertEquals(name, rs.getString(2));
+            if (count % 10000 == 0)
+                Thread.sleep(100);
+        }
+        rs.getStatement().close();
+        assertEquals(ROWS, count);
+    }
+
+    private static void testCloseWhilePaused(Statement stmt) throws Exception {
+        Connection conn = MySQLJdbcTest.getMySQLConnection();
+        int id = MySQLJdbcTest.getInt(conn.createStatement(), "select connection_id()");
+        executeStreamingQuery(conn);
+        // 直接断开socket，不读剩下的记录
+        conn.abort(Runnable::run);
+
+        // 服务器关闭连接后就找不到这个连接了，KILL QUERY不会结束连接，所以只有服务器自己关闭了才会出错
+        for (int i = 0;; i++) {
+            try {
+                stmt.executeUpdate("kill query " + id);
+            } catch (SQLException e) {
+                assertEquals(1094, e.getErrorCode()); // ER_NO_SUCH_THREAD
+                break;
+            }
+            if (i >= 50)
+                fail();
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// 测试用的lealone.yaml把secure_file_priv设成了./target/secure_files
+public class MySQLLoadDataTest {
+
+    public static final String SECURE_FILE_PRIV = "./target/secure_files";
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("allowLoadLocalInfile", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists load_data_test");
+            stmt.executeUpdate("create table load_data_test(id int primary key, name varchar(20))");
+
+            File dir = new File(SECURE_FILE_PRIV);
+            dir.mkdirs();
+            File file = new File(dir, "load_data_test.txt");
+            Files.write(file.toPath(), "1\ta\n2\tb\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(2, stmt.executeUpdate("load data infile 'load_data_test.txt' into table load_data_test"));
+
+            // 不在secure_file_priv目录中的文件不能读
+            try {
+                stmt.executeUpdate(
+                        "load data infile '../secure_files/../load_data_test.txt' into table load_data_test");
+                fail();
+            } catch (SQLException e) {
+                assertEquals(1290, e.getErrorCode());
+            }
+
+            File localFile = File.createTempFile("load_data_local", ".txt");
+            localFile.deleteOnExit();
+            Files.write(localFile.toPath(), "3,c\n4,d\n5,e\n".getBytes(StandardCharsets.UTF_8));
+            String path = localFile.getAbsolutePath().replace('\\', '/');
+            assertEquals(3, stmt.executeUpdate("load data local infile '" + path
+                    + "' into table load_data_test fields terminated by ','"));
+            assertEquals(5, MySQLJdbcTest.getInt(stmt, "select count(*) from load_data_test"));
+        }
+    }
+}
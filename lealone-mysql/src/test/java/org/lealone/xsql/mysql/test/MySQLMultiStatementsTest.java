@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// 打开allowMultiQueries后驱动会设置CLIENT_MULTI_STATEMENTS，一个COM_QUERY中的多条语句依次返回结果
+public class MySQLMultiStatementsTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("allowMultiQueries", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("drop table if exists multi_statements_test; "
+                    + "create table multi_statements_test(id int primary key, name varchar(20))");
+
+            boolean isResultSet = stmt.execute("insert into multi_statements_test values(1, 'a'); "
+                    + "insert into multi_statements_test values(2, 'b'), (3, 'c'); "
+                    + "select count(*) from multi_statements_test; "
+                    + "update multi_statements_test set name = 'x' where id > 1; "
+                    + "select name from multi_statements_test order by id");
+            assertFalse(isResultSet);
+            assertEquals(1, stmt.getUpdateCount());
+            assertFalse(stmt.getMoreResults());
+            assertEquals(2, stmt.getUpdateCount());
+            assertTrue(stmt.getMoreResults());
+            ResultSet rs = stmt.getResultSet();
+            rs.next();
+            assertEquals(3, rs.getInt(1));
+            rs.close();
+            assertFalse(stmt.getMoreResults());
+            assertEquals(2, stmt.getUpdateCount());
+            assertTrue(stmt.getMoreResults());
+            rs = stmt.getResultSet();
+            rs.next();
+            assertEquals("a", rs.getString(1));
+            rs.next();
+            assertEquals("x", rs.getString(1));
+            rs.close();
+            assertFalse(stmt.getMoreResults());
+            assertEquals(-1, stmt.getUpdateCount());
+
+            // 出错后不再执行剩下的语句
+            try {
+                stmt.execute("insert into multi_statements_test values(4, 'd'); "
+                        + "insert into multi_statements_test values(1, 'dup'); "
+                        + "insert into multi_statements_test values(5, 'e')");
+                while (stmt.getMoreResults() || stmt.getUpdateCount() != -1) {
+                }
+                fail();
+            } catch (SQLException e) {
+                // 主键冲突
+            }
+            assertEquals(4, MySQLJdbcTest.getInt(stmt, "select count(*) from multi_statements_test"));
+            assertEquals(0,
+                    MySQLJdbcTest.getInt(stmt, "select count(*) from multi_statements_test where id = 5"));
+        }
+    }
+}
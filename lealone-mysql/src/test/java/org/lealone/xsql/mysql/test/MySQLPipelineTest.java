@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.lealone.xsql.mysql.server.MySQLServer;
+
+// JDBC驱动总是等上一个命令的响应，所以这里直接用socket把多个命令一次发出去，
+// 服务器要按顺序返回每个命令的响应，出错的命令不影响后面的命令
+public class MySQLPipelineTest {
+
+    private static final int CLIENT_LONG_PASSWORD = 1;
+    private static final int CLIENT_CONNECT_WITH_DB = 8;
+    private static final int CLIENT_PROTOCOL_41 = 512;
+    private static final int CLIENT_SECURE_CONNECTION = 32768;
+    private static final int CLIENT_PLUGIN_AUTH = 524288;
+
+    private static final int COM_QUERY = 3;
+    private static final int COM_PING = 14;
+
+    public static void main(String[] args) throws Exception {
+        try (Socket socket = new Socket("localhost", MySQLServer.DEFAULT_PORT)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            login(in, out);
+
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            writeCommand(requests, COM_QUERY, "select 1");
+            writeCommand(requests, COM_QUERY, "select 2");
+            writeCommand(requests, COM_QUERY, "select * from pipeline_no_such_table");
+            writeCommand(requests, COM_PING, "");
+            writeCommand(requests, COM_QUERY, "select 3");
+            out.write(requests.toByteArray());
+            out.flush();
+
+            assertEquals("1", readQueryResult(in));
+            assertEquals("2", readQueryResult(in));
+            assertEquals("ERR", readQueryResult(in));
+            assertEquals("OK", readQueryResult(in));
+            assertEquals("3", readQueryResult(in));
+        }
+    }
+
+    // 空密码登录，认证插件用握手包中的插件
+    static void login(DataInputStream in, OutputStream out) throws IOException {
+        byte[] handshake = readPacket(in);
+        int pos = 1;
+        while (handshake[pos] != 0) // 服务器版本
+            pos++;
+        pos += 1 + 4 + 8 + 1 + 2 + 1 + 2 + 2 + 1 + 10 + 13; // 跳到认证插件名
+        int end = pos;
+        while (end < handshake.length && handshake[end] != 0)
+            end++;
+        String plugin = new String(handshake, pos, end - pos, StandardCharsets.US_ASCII);
+
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
+        writeInt(buff, CLIENT_LONG_PASSWORD | CLIENT_CONNECT_WITH_DB | CLIENT_PROTOCOL_41
+                | CLIENT_SECURE_CONNECTION | CLIENT_PLUGIN_AUTH);
+        writeInt(buff, 16 * 1024 * 1024);
+        buff.write(33); // utf8_general_ci
+        buff.write(new byte[23]);
+        writeString(buff, "root");
+        buff.write(0); // 空密码
+        writeString(buff, "mysql");
+        writeString(buff, plugin);
+        writePacket(out, 1, buff.toByteArray());
+        out.flush();
+        assertEquals(0, readPacket(in)[0]);
+    }
+
+    // 返回第一行第一列的值，OK包返回"OK"，错误包返回"ERR"
+    static String readQueryResult(DataInputStream in) throws IOException {
+        byte[] packet = readPacket(in);
+        int first = packet[0] & 0xff;
+        if (first == 0)
+            return "OK";
+        if (first == 0xff)
+            return "ERR";
+        for (int i = 0; i < first; i++) // 字段定义
+            readPacket(in);
+        readPacket(in); // EOF
+        String value = null;
+        while (true) {
+            packet = readPacket(in);
+            if ((packet[0] & 0xff) == 0xfe && packet.length < 9)
+                break;
+            if (value == null)
+                value = new String(packet, 1, packet[0] & 0xff, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static void writeCommand(OutputStream out, int command, String sql) throws IOException {
+        byte[] s = sql.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[s.length + 1];
+        body[0] = (byte) command;
+        System.arraycopy(s, 0, body, 1, s.length);
+        writePacket(out, 0, body);
+    }
+
+    static void writePacket(OutputStream out, int packetId, byte[] body) throws IOException {
+        int len = body.length;
+        out.write(len & 0xff);
+        out.write((len >>> 8) & 0xff);
+        out.write((len >>> 16) & 0xff);
+        out.write(packetId);
+        out.write(body);
+    }
+
+    static byte[] readPacket(DataInputStream in) throws IOException {
+        int len = in.readUnsignedByte() | (in.readUnsignedByte() << 8) | (in.readUnsignedByte() << 16);
+        in.readUnsignedByte(); // 包序号
+        byte[] body = new byte[len];
+        in.readFully(body);
+        return body;
+    }
+
+    static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        out.write((v >>> 16) & 0xff);
+        out.write((v >>> 24) & 0xff);
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+}
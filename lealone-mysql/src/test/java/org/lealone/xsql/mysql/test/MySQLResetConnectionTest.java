@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import com.mysql.cj.jdbc.JdbcConnection;
+
+// COM_RESET_CONNECTION和COM_CHANGE_USER都会回滚事务并清除变量，连接断开时未提交的事务也要回滚
+public class MySQLResetConnectionTest {
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists reset_connection_test");
+            stmt.executeUpdate("create table reset_connection_test(id int primary key)");
+            testResetConnection();
+            testChangeUser();
+            testCloseInTransaction(stmt);
+        }
+    }
+
+    private static void testResetConnection() throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("set @v = 10");
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("insert into reset_connection_test values(1)");
+            conn.unwrap(JdbcConnection.class).resetServerState();
+            conn.setAutoCommit(true);
+            assertNull(MySQLJdbcTest.getString(stmt, "select @v"));
+            assertEquals(0, MySQLJdbcTest.getInt(stmt, "select count(*) from reset_connection_test"));
+        }
+    }
+
+    private static void testChangeUser() throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("set @v = 10");
+            conn.setAutoCommit(false);
+            stmt.executeUpdate("insert into reset_connection_test values(2)");
+            conn.unwrap(JdbcConnection.class).changeUser("root", "");
+            conn.setAutoCommit(true);
+            assertNull(MySQLJdbcTest.getString(stmt, "select @v"));
+            assertEquals(0, MySQLJdbcTest.getInt(stmt, "select count(*) from reset_connection_test"));
+            // 切换用户后连接还能正常使用
+            assertEquals(1, stmt.executeUpdate("insert into reset_connection_test values(2)"));
+            assertEquals(1, stmt.executeUpdate("delete from reset_connection_test where id = 2"));
+        }
+    }
+
+    private static void testCloseInTransaction(Statement stmt) throws Exception {
+        Connection conn = MySQLJdbcTest.getMySQLConnection();
+        Statement stmt2 = conn.createStatement();
+        conn.setAutoCommit(false);
+        stmt2.executeUpdate("insert into reset_connection_test values(3)");
+        // 直接断开网络连接，不让驱动先发送回滚
+        conn.abort(Runnable::run);
+        // 服务器关闭连接时回滚了事务，同样的主键可以再插入
+        for (int i = 0; i < 50; i++) {
+            try {
+                assertEquals(1, stmt.executeUpdate("insert into reset_connection_test values(3)"));
+                break;
+            } catch (Exception e) {
+                if (i == 49)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+        assertEquals(1, MySQLJdbcTest.getInt(stmt, "select count(*) from reset_connection_test"));
+    }
+}
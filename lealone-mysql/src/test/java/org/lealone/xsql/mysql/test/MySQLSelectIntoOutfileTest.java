@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class MySQLSelectIntoOutfileTest {
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists outfile_test");
+            stmt.executeUpdate("create table outfile_test(id int primary key, name varchar(20))");
+            stmt.executeUpdate("insert into outfile_test values(1, 'a'), (2, null), (3, 'c\\td')");
+
+            File dir = new File(MySQLLoadDataTest.SECURE_FILE_PRIV);
+            dir.mkdirs();
+            String fileName = "outfile_test_" + System.nanoTime() + ".txt";
+            String sql = "select id, name from outfile_test order by id into outfile '" + fileName + "'";
+            stmt.execute(sql);
+            File file = new File(dir, fileName);
+            file.deleteOnExit();
+            assertEquals("1\ta\n2\t\\N\n3\tc\\\td\n",
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+            // 不能覆盖已经存在的文件
+            try {
+                stmt.execute(sql);
+                fail();
+            } catch (SQLException e) {
+            }
+
+            // 不在secure_file_priv目录中的文件不能写
+            try {
+                stmt.execute("select id from outfile_test into outfile '../outfile_test.txt'");
+                fail();
+            } catch (SQLException e) {
+                assertEquals(1290, e.getErrorCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+
+// 服务器端预处理语句的流参数用COM_STMT_SEND_LONG_DATA分块发送，执行时拼成完整的值
+public class MySQLSendLongDataTest {
+
+    public static void main(String[] args) throws Exception {
+        byte[] bytes = new byte[500 * 1024];
+        new Random(1).nextBytes(bytes);
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            buff.append((char) ('a' + i % 26));
+            if (i % 1000 == 0)
+                buff.append('中');
+        }
+        String text = buff.toString();
+
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        info.put("blobSendChunkSize", "65536"); // 分成多个块发送
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists send_long_data_test");
+            stmt.executeUpdate("create table send_long_data_test(id int primary key, b blob, c clob)");
+
+            PreparedStatement ps = conn.prepareStatement("insert into send_long_data_test values(?, ?, ?)");
+            ps.setInt(1, 1);
+            ps.setBinaryStream(2, new ByteArrayInputStream(bytes));
+            ps.setCharacterStream(3, new StringReader(text));
+            assertEquals(1, ps.executeUpdate());
+            // 同一个语句再次执行时要用新的数据，不能跟上一次的拼在一起
+            ps.setInt(1, 2);
+            ps.setBinaryStream(2, new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+            ps.setCharacterStream(3, new StringReader("abc"));
+            assertEquals(1, ps.executeUpdate());
+            ps.close();
+
+            ps = conn.prepareStatement("select b, c from send_long_data_test order by id");
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertArrayEquals(bytes, rs.getBytes(1));
+            assertEquals(text, rs.getString(2));
+            assertTrue(rs.next());
+            assertArrayEquals(new byte[] { 1, 2, 3 }, rs.getBytes(1));
+            assertEquals("abc", rs.getString(2));
+            rs.close();
+            ps.close();
+        }
+    }
+}
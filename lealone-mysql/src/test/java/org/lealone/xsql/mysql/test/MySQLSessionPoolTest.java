@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// 测试用的lealone.yaml配置了session_pool_warmup: root@mysql，
+// 会话池预先创建会话，配置中没有密码，取出会话时还是要验证客户端的密码
+public class MySQLSessionPoolTest {
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 10; i++) {
+            try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                    Statement stmt = conn.createStatement()) {
+                // 上一个连接设置的变量不能带到池中的会话里
+                assertNull(MySQLJdbcTest.getString(stmt, "select @pool_var"));
+                stmt.executeUpdate("set @pool_var = " + i);
+                assertEquals(1, MySQLJdbcTest.getInt(stmt, "select 1"));
+            }
+        }
+        // 池中有root的会话，密码不对时也不能用
+        Properties info = new Properties();
+        info.put("password", "wrong_pwd");
+        try {
+            MySQLJdbcTest.getMySQLConnection(info).close();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(1045, e.getErrorCode());
+        }
+    }
+}
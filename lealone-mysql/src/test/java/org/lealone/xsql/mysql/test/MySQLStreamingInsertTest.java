@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+// VALUES列表超过64K个字符并且只有常量、参数和DEFAULT时，执行时边解析边分批插入
+public class MySQLStreamingInsertTest {
+
+    private static final int ROWS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useServerPrepStmts", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists streaming_insert_test");
+            stmt.executeUpdate("create table streaming_insert_test(id int primary key, name varchar(20), "
+                    + "f int default 7)");
+
+            StringBuilder buff = new StringBuilder("insert into streaming_insert_test(id, name, f) values");
+            for (int i = 1; i <= ROWS; i++) {
+                if (i > 1)
+                    buff.append(',');
+                buff.append('(').append(i).append(", 'name-").append(i).append("', ");
+                buff.append(i % 2 == 0 ? "default" : "-1").append(')');
+            }
+            String sql = buff.toString();
+            assertEquals(ROWS, stmt.executeUpdate(sql));
+            assertEquals(ROWS, MySQLJdbcTest.getInt(stmt, "select count(*) from streaming_insert_test"));
+            assertEquals(ROWS / 2,
+                    MySQLJdbcTest.getInt(stmt, "select count(*) from streaming_insert_test where f = 7"));
+            assertEquals("name-4999",
+                    MySQLJdbcTest.getString(stmt, "select name from streaming_insert_test where id = 4999"));
+
+            // 服务器端预处理语句可以执行多次
+            stmt.executeUpdate("delete from streaming_insert_test");
+            PreparedStatement ps = conn.prepareStatement(sql);
+            assertEquals(ROWS, ps.executeUpdate());
+            stmt.executeUpdate("delete from streaming_insert_test");
+            assertEquals(ROWS, ps.executeUpdate());
+            ps.close();
+            assertEquals(ROWS, MySQLJdbcTest.getInt(stmt, "select count(*) from streaming_insert_test"));
+
+            // 有重复的主键时整个语句失败，已经插入的批次也要回滚
+            stmt.executeUpdate("delete from streaming_insert_test");
+            try {
+                stmt.executeUpdate(sql + ",(1, 'dup', 0)");
+                fail();
+            } catch (SQLException e) {
+                // 主键冲突
+            }
+            assertEquals(0, MySQLJdbcTest.getInt(stmt, "select count(*) from streaming_insert_test"));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+// 文本协议的行直接按值的类型编码，整数、日期时间、浮点数、二进制数据、布尔值和多字节字符
+// 都要跟原来的值一样
+public class MySQLTextRowTest {
+
+    public static void main(String[] args) throws Exception {
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("drop table if exists text_row_test");
+            stmt.executeUpdate("create table text_row_test(id int primary key, i int, l bigint, "
+                    + "d decimal(20, 3), dt date, b boolean, s varchar(50))");
+            String s = "abc中文😀"; // 包含4个字节的UTF-8字符
+            PreparedStatement ps = conn
+                    .prepareStatement("insert into text_row_test values(?, ?, ?, ?, ?, ?, ?)");
+            ps.setInt(1, 1);
+            ps.setInt(2, Integer.MIN_VALUE);
+            ps.setLong(3, Long.MIN_VALUE);
+            ps.setBigDecimal(4, new BigDecimal("-12345.678"));
+            ps.setDate(5, Date.valueOf("1999-12-31"));
+            ps.setBoolean(6, true);
+            ps.setString(7, s);
+            ps.executeUpdate();
+            ps.close();
+            stmt.executeUpdate(
+                    "insert into text_row_test(id, i, l, b, s) values(2, 0, 9223372036854775807, false, '')");
+            stmt.executeUpdate("insert into text_row_test(id) values(3)");
+
+            ResultSet rs = stmt.executeQuery("select * from text_row_test order by id");
+            assertTrue(rs.next());
+            assertEquals(Integer.MIN_VALUE, rs.getInt(2));
+            assertEquals(Long.MIN_VALUE, rs.getLong(3));
+            assertEquals(new BigDecimal("-12345.678"), rs.getBigDecimal(4));
+            assertEquals("1999-12-31", rs.getString(5));
+            assertEquals("1", rs.getString(6));
+            assertEquals(s, rs.getString(7));
+
+            assertTrue(rs.next());
+            assertEquals("0", rs.getString(2));
+            assertEquals(Long.MAX_VALUE, rs.getLong(3));
+            assertEquals("0", rs.getString(6));
+            // 空字符串不是NULL
+            assertEquals("", rs.getString(7));
+
+            assertTrue(rs.next());
+            for (int i = 2; i <= 7; i++) {
+                assertNull(rs.getString(i));
+            }
+            assertFalse(rs.next());
+            rs.close();
+
+            testTemporalAndBinary(stmt);
+        }
+    }
+
+    private static void testTemporalAndBinary(Statement stmt) throws Exception {
+        stmt.executeUpdate("drop table if exists text_row_test2");
+        stmt.executeUpdate("create table text_row_test2(id int primary key, ts timestamp, tm time, "
+                + "db double, bin varbinary(10))");
+        stmt.executeUpdate("insert into text_row_test2 values(1, '2020-01-02 03:04:05.5', '12:34:56', "
+                + "3.0, X'0102ff')");
+        stmt.executeUpdate("insert into text_row_test2 values(2, '1999-12-31 23:59:59', '23:59:58', "
+                + "-1.5, X'')");
+
+        ResultSet rs = stmt.executeQuery("select ts, tm, db, bin from text_row_test2 order by id");
+        assertTrue(rs.next());
+        assertEquals(Timestamp.valueOf("2020-01-02 03:04:05.5"), rs.getTimestamp(1));
+        assertEquals(Time.valueOf("12:34:56"), rs.getTime(2));
+        assertEquals(3.0, rs.getDouble(3), 0);
+        // 二进制数据直接发送原始的字节，不是十六进制字符串
+        assertArrayEquals(new byte[] { 1, 2, (byte) 0xff }, rs.getBytes(4));
+
+        assertTrue(rs.next());
+        assertEquals(Timestamp.valueOf("1999-12-31 23:59:59"), rs.getTimestamp(1));
+        assertEquals(Time.valueOf("23:59:58"), rs.getTime(2));
+        assertEquals(-1.5, rs.getDouble(3), 0);
+        assertEquals(0, rs.getBytes(4).length);
+        assertFalse(rs.next());
+        rs.close();
+    }
+}
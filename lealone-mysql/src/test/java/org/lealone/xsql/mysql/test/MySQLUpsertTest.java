@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.xsql.mysql.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.lealone.db.api.ErrorCode;
+
+// 不设置CLIENT_FOUND_ROWS，影响的记录数跟MySQL一样：插入算1，更新算2，值没有变化算0
+public class MySQLUpsertTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties info = new Properties();
+        info.put("useAffectedRows", "true");
+        try (Connection conn = MySQLJdbcTest.getMySQLConnection(info);
+                Statement stmt = conn.createStatement()) {
+            testOnDuplicateKeyUpdate(stmt);
+            testInsertIgnore(stmt);
+            testReplace(stmt);
+            testInsertSelect(stmt);
+        }
+    }
+
+    private static void testOnDuplicateKeyUpdate(Statement stmt) throws Exception {
+        stmt.executeUpdate("drop table if exists upsert_test");
+        stmt.executeUpdate("create table upsert_test(id int primary key, code varchar(10) unique, "
+                + "f int default 10)");
+        String sql = "insert into upsert_test(id, code) values(1, 'a') on duplicate key update f = f + 1";
+        assertEquals(1, stmt.executeUpdate(sql));
+        assertEquals(2, stmt.executeUpdate(sql));
+        assertEquals(11, MySQLJdbcTest.getInt(stmt, "select f from upsert_test where id = 1"));
+
+        // 跟另一个唯一索引冲突时也更新冲突的记录
+        assertEquals(2, stmt.executeUpdate(
+                "insert into upsert_test(id, code) values(2, 'a') on duplicate key update f = 100"));
+        assertEquals(1, MySQLJdbcTest.getInt(stmt, "select count(*) from upsert_test"));
+        assertEquals(100, MySQLJdbcTest.getInt(stmt, "select f from upsert_test where code = 'a'"));
+
+        // 值没有变化时算0
+        assertEquals(0, stmt.executeUpdate(
+                "insert into upsert_test(id, code) values(1, 'a') on duplicate key update f = 100"));
+
+        // DEFAULT和VALUES(col)使用列的默认值
+        assertEquals(2, stmt.executeUpdate("insert into upsert_test(id, code, f) values(1, 'a', default) "
+                + "on duplicate key update f = values(f)"));
+        assertEquals(10, MySQLJdbcTest.getInt(stmt, "select f from upsert_test where id = 1"));
+
+        // 多行中有DEFAULT
+        assertEquals(3, stmt.executeUpdate("insert into upsert_test(id, code, f) values(3, 'c', default), "
+                + "(4, 'd', default), (5, 'e', 5) on duplicate key update f = values(f)"));
+        assertEquals(25, MySQLJdbcTest.getInt(stmt, "select sum(f) from upsert_test where id > 2"));
+
+        // IGNORE不影响ON DUPLICATE KEY UPDATE，冲突的记录还是要更新
+        assertEquals(2, stmt.executeUpdate(
+                "insert ignore into upsert_test(id, code) values(5, 'e') on duplicate key update f = 50"));
+        assertEquals(50, MySQLJdbcTest.getInt(stmt, "select f from upsert_test where id = 5"));
+    }
+
+    private static void testInsertIgnore(Statement stmt) throws Exception {
+        stmt.executeUpdate("drop table if exists insert_ignore_test");
+        stmt.executeUpdate("create table insert_ignore_test(id int primary key, code varchar(10) unique)");
+        assertEquals(2, stmt.executeUpdate("insert ignore into insert_ignore_test values(1, 'a'), (2, 'b')"));
+        assertEquals(1, stmt.executeUpdate(
+                "insert ignore into insert_ignore_test values(1, 'x'), (3, 'b'), (4, 'd')"));
+        assertEquals(3, MySQLJdbcTest.getInt(stmt, "select count(*) from insert_ignore_test"));
+    }
+
+    private static void testReplace(Statement stmt) throws Exception {
+        stmt.executeUpdate("drop table if exists replace_test");
+        stmt.executeUpdate("create table replace_test(id int primary key, code varchar(10) unique, "
+                + "f int default 10)");
+        assertEquals(2,
+                stmt.executeUpdate("replace into replace_test(id, code, f) values(1, 'a', 1), (2, 'b', 2)"));
+
+        // 没有指定的列使用默认值，而不是保留原来的值
+        assertEquals(2, stmt.executeUpdate("replace into replace_test(id, code) values(1, 'a')"));
+        assertEquals(10, MySQLJdbcTest.getInt(stmt, "select f from replace_test where id = 1"));
+
+        // 同时跟两条记录冲突时两条都删除
+        assertEquals(3, stmt.executeUpdate("replace into replace_test values(1, 'b', 3)"));
+        assertEquals(1, MySQLJdbcTest.getInt(stmt, "select count(*) from replace_test"));
+        ResultSet rs = stmt.executeQuery("select id, code, f from replace_test");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        assertEquals("b", rs.getString(2));
+        assertEquals(3, rs.getInt(3));
+        rs.close();
+    }
+
+    private static void testInsertSelect(Statement stmt) throws Exception {
+        stmt.executeUpdate("drop table if exists insert_select_test");
+        stmt.executeUpdate("create table insert_select_test(id int primary key, f int)");
+        assertEquals(2, stmt.executeUpdate("insert into insert_select_test select id, f from upsert_test "
+                + "where id in (1, 5) on duplicate key update f = values(f)"));
+        assertEquals(4, stmt.executeUpdate("insert into insert_select_test select id, f + 1 from upsert_test "
+                + "where id in (1, 5) on duplicate key update f = values(f)"));
+        assertEquals(62, MySQLJdbcTest.getInt(stmt, "select sum(f) from insert_select_test"));
+
+        // SELECT的列数跟要插入的列数不同
+        try {
+            stmt.executeUpdate("insert ignore into insert_select_test select id from upsert_test");
+            fail();
+        } catch (SQLException e) {
+            assertEquals(ErrorCode.COLUMN_COUNT_DOES_NOT_MATCH, e.getErrorCode());
+        }
+    }
+}
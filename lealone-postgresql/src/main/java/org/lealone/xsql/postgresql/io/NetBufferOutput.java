@@ -5,6 +5,7 @@
  */
 package org.lealone.xsql.postgresql.io;
 
+import org.lealone.db.DataBuffer;
 import org.lealone.db.DataBufferFactory;
 import org.lealone.net.NetBuffer;
 import org.lealone.net.WritableChannel;
@@ -14,12 +15,19 @@ public class NetBufferOutput implements AutoCloseable {
     protected final WritableChannel writableChannel;
     protected final int initialSizeHint;
     protected final DataBufferFactory dataBufferFactory;
+    protected final WriteWaterMark waterMark;
     protected NetBuffer buffer;
 
     public NetBufferOutput(WritableChannel writableChannel, int initialSizeHint, DataBufferFactory dataBufferFactory) {
+        this(writableChannel, initialSizeHint, dataBufferFactory, null);
+    }
+
+    public NetBufferOutput(WritableChannel writableChannel, int initialSizeHint, DataBufferFactory dataBufferFactory,
+            WriteWaterMark waterMark) {
         this.writableChannel = writableChannel;
         this.initialSizeHint = initialSizeHint;
         this.dataBufferFactory = dataBufferFactory;
+        this.waterMark = waterMark;
         reset();
     }
 
@@ -63,6 +71,8 @@ public class NetBufferOutput implements AutoCloseable {
     }
 
     public void flush() {
+        if (waterMark != null)
+            ((TrackedNetBuffer) buffer).onWrite();
         buffer.flip();
         NetBuffer old = buffer;
         reset();
@@ -74,7 +84,36 @@ public class NetBufferOutput implements AutoCloseable {
     }
 
     protected void reset() {
-        buffer = writableChannel.getBufferFactory().createBuffer(initialSizeHint, dataBufferFactory);
+        if (waterMark == null)
+            buffer = writableChannel.getBufferFactory().createBuffer(initialSizeHint, dataBufferFactory);
+        else
+            buffer = new TrackedNetBuffer(dataBufferFactory.create(initialSizeHint), waterMark);
+    }
+
+    // 通道把数据全部写到socket后会回收NetBuffer，这时才从waterMark中减去
+    private static class TrackedNetBuffer extends NetBuffer {
+
+        private final WriteWaterMark waterMark;
+        private int length = -1;
+
+        TrackedNetBuffer(DataBuffer dataBuffer, WriteWaterMark waterMark) {
+            super(dataBuffer);
+            this.waterMark = waterMark;
+        }
+
+        void onWrite() {
+            length = length();
+            waterMark.onWrite(length);
+        }
+
+        @Override
+        public void recycle() {
+            super.recycle();
+            if (length >= 0) {
+                waterMark.onWritten(length);
+                length = -1;
+            }
+        }
     }
 
     @Override
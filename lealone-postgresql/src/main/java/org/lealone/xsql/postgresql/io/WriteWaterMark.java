@@ -0,0 +1,56 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package org.lealone.xsql.postgresql.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 统计一个连接已经交给通道但还没有写到socket的字节数。
+ * 超过高水位时应该暂停产生新的消息，降到低水位以下时再调用drainHandler继续。
+ */
+public class WriteWaterMark {
+
+    private final int highWaterMark;
+    private final int lowWaterMark;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicReference<Runnable> drainHandler = new AtomicReference<>();
+
+    public WriteWaterMark(int highWaterMark, int lowWaterMark) {
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    public boolean isWritable() {
+        return pendingBytes.get() < highWaterMark;
+    }
+
+    /**
+     * 通道中的数据降到低水位以下时调用一次handler，如果已经在低水位以下就立刻调用
+     */
+    public void setDrainHandler(Runnable handler) {
+        drainHandler.set(handler);
+        // 注册之前数据可能已经写完了，这时不会再有写完成的回调，所以注册之后要再检查一次
+        if (pendingBytes.get() < lowWaterMark)
+            runDrainHandler();
+    }
+
+    void onWrite(int length) {
+        pendingBytes.addAndGet(length);
+    }
+
+    void onWritten(int length) {
+        if (pendingBytes.addAndGet(-length) < lowWaterMark)
+            runDrainHandler();
+    }
+
+    // 写完成的回调和setDrainHandler可能在不同的线程中同时调用，用getAndSet保证handler只被调用一次
+    private void runDrainHandler() {
+        Runnable handler = drainHandler.getAndSet(null);
+        if (handler != null)
+            handler.run();
+    }
+}
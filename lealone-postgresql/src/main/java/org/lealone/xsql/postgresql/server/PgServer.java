@@ -5,11 +5,17 @@
  */
 package org.lealone.xsql.postgresql.server;
 
+import java.sql.Connection;
 import java.util.HashSet;
 import java.util.Map;
 
+import org.lealone.client.jdbc.JdbcConnection;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
+import org.lealone.db.Constants;
+import org.lealone.db.Database;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.db.auth.User;
 import org.lealone.net.WritableChannel;
 import org.lealone.server.AsyncServer;
 import org.lealone.server.Scheduler;
@@ -24,6 +30,7 @@ public class PgServer extends AsyncServer<PgServerConnection> {
 
     private final HashSet<Integer> typeSet = new HashSet<>();
     private boolean trace;
+    private SessionPool sessionPool;
 
     @Override
     public String getType() {
@@ -34,6 +41,56 @@ public class PgServer extends AsyncServer<PgServerConnection> {
     public void init(Map<String, String> config) {
         super.init(config);
         trace = Boolean.parseBoolean(config.get("trace"));
+        int sessionPoolSize = 0;
+        if (config.containsKey("session_pool_size"))
+            sessionPoolSize = Integer.parseInt(config.get("session_pool_size"));
+        long sessionPoolMaxIdleTime = 300;
+        if (config.containsKey("session_pool_max_idle_time"))
+            sessionPoolMaxIdleTime = Long.parseLong(config.get("session_pool_max_idle_time"));
+        sessionPool = new SessionPool(sessionPoolSize, sessionPoolMaxIdleTime * 1000);
+        if (config.containsKey("session_pool_warmup"))
+            warmUpSessionPool(config.get("session_pool_warmup"));
+    }
+
+    // 预先为每个user@database创建session_pool_size个连接，多个用逗号分隔。
+    // 配置中不保存密码，连接直接用数据库中已有的用户创建，客户端从池中取连接时再按用户库中的密码哈希验证
+    private void warmUpSessionPool(String users) {
+        for (String entry : users.split(",")) {
+            entry = entry.trim();
+            int at = entry.lastIndexOf('@');
+            if (at <= 0 || at == entry.length() - 1 || entry.indexOf(':') >= 0) {
+                logger.error("Invalid session_pool_warmup entry (expected user@database): " + entry);
+                continue;
+            }
+            String userName = entry.substring(0, at);
+            String dbName = entry.substring(at + 1);
+            try {
+                Database db = LealoneDatabase.getInstance().getDatabase(dbName);
+                if (db == null) {
+                    logger.error("Failed to warm up session pool, database not found: " + dbName);
+                    continue;
+                }
+                if (!db.isInitialized())
+                    db.init();
+                User user = db.findUser(db.getSystemSession(), userName);
+                if (user == null) {
+                    logger.error("Failed to warm up session pool, user not found: " + entry);
+                    continue;
+                }
+                String url = Constants.URL_PREFIX + Constants.URL_EMBED + dbName;
+                for (int i = 0; i < sessionPool.getMaxSize(); i++) {
+                    Connection conn = new JdbcConnection(db.createSession(user), userName, url);
+                    PgServerConnection.initDb(this, conn);
+                    sessionPool.warmUp(dbName, userName, user, conn);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to warm up session pool for " + entry, e);
+            }
+        }
+    }
+
+    SessionPool getSessionPool() {
+        return sessionPool;
     }
 
     @Override
@@ -18,6 +18,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +46,7 @@ import org.lealone.server.Scheduler;
 import org.lealone.sql.SQLStatement;
 import org.lealone.xsql.postgresql.io.NetBufferInput;
 import org.lealone.xsql.postgresql.io.NetBufferOutput;
+import org.lealone.xsql.postgresql.io.WriteWaterMark;
 
 /**
  * One server connection is opened for each client.
@@ -62,6 +64,10 @@ public class PgServerConnection extends AsyncConnection {
     private static final Logger logger = LoggerFactory.getLogger(PgServerConnection.class);
 
     private static final int BUFFER_SIZE = 4 * 1024;
+    // 简单查询协议的多个消息会先合并，超过这个大小时就先写到通道
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final int HIGH_WATER_MARK = 1024 * 1024;
+    private static final int LOW_WATER_MARK = 256 * 1024;
 
     private final PgServer server;
     private final Scheduler scheduler;
@@ -72,14 +78,24 @@ public class PgServerConnection extends AsyncConnection {
     private boolean initDone;
     private String userName;
     private String databaseName;
+    private byte[] passwordDigest;
+    // 会话的状态没有被改变过，断开时可以放回连接池
+    private boolean sessionReusable = true;
     private int processId;
     private String clientEncoding = Utils.getProperty("pgClientEncoding", "UTF-8");
     private String dateStyle = "ISO";
     private final HashMap<String, Prepared> prepared = new CaseInsensitiveMap<Prepared>();
     private final HashMap<String, Portal> portals = new CaseInsensitiveMap<Portal>();
     private final ArrayList<NetBufferOutput> outList = new ArrayList<>();
+    private int outListLength;
     private boolean isQuery;
 
+    // 客户端读得太慢时暂停发送结果集，等通道中的数据写出去后再继续，暂停期间收到的消息先放到队列中
+    private final WriteWaterMark waterMark = new WriteWaterMark(HIGH_WATER_MARK, LOW_WATER_MARK);
+    private Statement pausedStatement;
+    private PausedTask pausedTask;
+    private final ArrayDeque<Runnable> pendingMessages = new ArrayDeque<>();
+
     protected PgServerConnection(PgServer server, WritableChannel writableChannel, Scheduler scheduler) {
         super(writableChannel, true);
         this.server = server;
@@ -114,7 +130,8 @@ public class PgServerConnection extends AsyncConnection {
         in.readFully(buff);
     }
 
-    private JdbcConnection createJdbcConnection(String password) throws SQLException {
+    static JdbcConnection createJdbcConnection(String databaseName, String userName, String password)
+            throws SQLException {
         Properties info = new Properties();
         info.put("MODE", "PostgreSQL");
         info.put("USER", userName);
@@ -174,11 +191,16 @@ public class PgServerConnection extends AsyncConnection {
             server.trace("PasswordMessage");
             String password = readString();
             try {
-                conn = createJdbcConnection(password);
-                // can not do this because when called inside
-                // DriverManager.getConnection, a deadlock occurs
-                // conn = DriverManager.getConnection(url, userName, password);
-                initDb();
+                passwordDigest = SessionPool.getPasswordDigest(password);
+                // 池中的连接已经初始化过
+                conn = server.getSessionPool().poll(databaseName, userName, password, passwordDigest);
+                if (conn == null) {
+                    conn = createJdbcConnection(databaseName, userName, password);
+                    // can not do this because when called inside
+                    // DriverManager.getConnection, a deadlock occurs
+                    // conn = DriverManager.getConnection(url, userName, password);
+                    initDb(server, conn);
+                }
                 sendAuthenticationOk();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -309,18 +331,11 @@ public class PgServerConnection extends AsyncConnection {
                 prep.setMaxRows(maxRows);
                 boolean result = prep.execute();
                 if (result) {
-                    try {
-                        ResultSet rs = prep.getResultSet();
-                        // 不需要发送RowDescription
-                        // ResultSetMetaData meta = rs.getMetaData();
-                        // sendRowDescription(meta);
-                        while (rs.next()) {
-                            sendDataRow(rs);
-                        }
-                        sendCommandComplete(prep, 0);
-                    } catch (Exception e) {
-                        sendErrorResponse(e);
-                    }
+                    ResultSet rs = prep.getResultSet();
+                    // 不需要发送RowDescription
+                    // ResultSetMetaData meta = rs.getMetaData();
+                    // sendRowDescription(meta);
+                    sendPortalResult(prep, rs);
                 } else {
                     sendCommandComplete(prep, prep.getUpdateCount());
                 }
@@ -339,41 +354,7 @@ public class PgServerConnection extends AsyncConnection {
             server.trace("Query");
             String query = readString();
             ScriptReader reader = new ScriptReader(new StringReader(query));
-            while (true) {
-                JdbcStatement stat = null;
-                try {
-                    String s = reader.readStatement();
-                    if (s == null) {
-                        break;
-                    }
-                    s = getSQL(s);
-                    stat = (JdbcStatement) conn.createStatement();
-                    boolean result = stat.execute(s);
-                    if (result) {
-                        ResultSet rs = stat.getResultSet();
-                        ResultSetMetaData meta = rs.getMetaData();
-                        try {
-                            sendRowDescription(meta);
-                            while (rs.next()) {
-                                sendDataRow(rs);
-                            }
-                            sendCommandComplete(stat, 0);
-                        } catch (Exception e) {
-                            sendErrorResponse(e);
-                            break;
-                        }
-                    } else {
-                        sendCommandComplete(stat, stat.getUpdateCount());
-                    }
-                } catch (SQLException e) {
-                    sendErrorResponse(e);
-                    break;
-                } finally {
-                    JdbcUtils.closeSilently(stat);
-                }
-            }
-            isQuery = false;
-            sendReadyForQuery();
+            executeQuery(reader);
             break;
         }
         case 'X': {
@@ -387,6 +368,103 @@ public class PgServerConnection extends AsyncConnection {
         }
     }
 
+    // 执行简单查询协议中剩下的SQL，遇到结果集时由sendQueryResult发送记录并接着执行后面的SQL
+    private void executeQuery(ScriptReader reader) throws IOException {
+        while (true) {
+            JdbcStatement stat = null;
+            try {
+                String s = reader.readStatement();
+                if (s == null) {
+                    break;
+                }
+                s = getSQL(s);
+                stat = (JdbcStatement) conn.createStatement();
+                boolean result = stat.execute(s);
+                if (result) {
+                    ResultSet rs = stat.getResultSet();
+                    ResultSetMetaData meta = rs.getMetaData();
+                    sendRowDescription(meta);
+                    sendQueryResult(reader, stat, rs);
+                    return;
+                } else {
+                    sendCommandComplete(stat, stat.getUpdateCount());
+                }
+            } catch (Exception e) {
+                sendErrorResponse(e);
+                break;
+            } finally {
+                if (pausedStatement != stat)
+                    JdbcUtils.closeSilently(stat);
+            }
+        }
+        isQuery = false;
+        sendReadyForQuery();
+    }
+
+    private void sendQueryResult(ScriptReader reader, JdbcStatement stat, ResultSet rs)
+            throws IOException {
+        try {
+            while (rs.next()) {
+                sendDataRow(rs);
+                if (!waterMark.isWritable()) {
+                    pause(stat, () -> sendQueryResult(reader, stat, rs));
+                    return;
+                }
+            }
+            sendCommandComplete(stat, 0);
+        } catch (Exception e) {
+            JdbcUtils.closeSilently(stat);
+            sendErrorResponse(e);
+            isQuery = false;
+            sendReadyForQuery();
+            return;
+        }
+        JdbcUtils.closeSilently(stat);
+        executeQuery(reader);
+    }
+
+    private void sendPortalResult(JdbcPreparedStatement prep, ResultSet rs) throws IOException {
+        try {
+            while (rs.next()) {
+                sendDataRow(rs);
+                if (!waterMark.isWritable()) {
+                    pause(null, () -> sendPortalResult(prep, rs));
+                    return;
+                }
+            }
+            sendCommandComplete(prep, 0);
+        } catch (Exception e) {
+            sendErrorResponse(e);
+        }
+    }
+
+    private void pause(Statement stat, PausedTask task) {
+        pausedStatement = stat;
+        pausedTask = task;
+        flushOutList();
+        waterMark.setDrainHandler(() -> scheduler.handle(() -> resume()));
+    }
+
+    private void resume() {
+        PausedTask task = pausedTask;
+        if (task == null) // 连接已经关闭
+            return;
+        pausedStatement = null;
+        pausedTask = null;
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.error("Failed to send result", e);
+        }
+        while (pausedTask == null && !pendingMessages.isEmpty() && !stop) {
+            pendingMessages.poll().run();
+        }
+    }
+
+    private interface PausedTask {
+        void run() throws IOException;
+    }
+
     private String getSQL(String s) {
         String lower = StringUtils.toLowerEnglish(s);
         if (lower.startsWith("show max_identifier_length")) {
@@ -402,6 +480,7 @@ public class PgServerConnection extends AsyncConnection {
     }
 
     private void sendCommandComplete(JdbcStatement stat, int updateCount) throws IOException {
+        checkSessionReusable(stat.getLastExecutedCommandType());
         startMessage('C');
         switch (stat.getLastExecutedCommandType()) {
         case SQLStatement.INSERT:
@@ -431,6 +510,29 @@ public class PgServerConnection extends AsyncConnection {
         sendMessage();
     }
 
+    // 只执行过这些语句的会话在回滚之后跟新创建的会话一样，可以再给其他客户端使用
+    private void checkSessionReusable(int commandType) {
+        if (!sessionReusable)
+            return;
+        switch (commandType) {
+        case SQLStatement.SELECT:
+        case SQLStatement.INSERT:
+        case SQLStatement.UPDATE:
+        case SQLStatement.DELETE:
+        case SQLStatement.CALL:
+        case SQLStatement.BEGIN:
+        case SQLStatement.COMMIT:
+        case SQLStatement.ROLLBACK:
+        case SQLStatement.SAVEPOINT:
+        case SQLStatement.ROLLBACK_TO_SAVEPOINT:
+        case SQLStatement.SET_AUTOCOMMIT_TRUE:
+        case SQLStatement.SET_AUTOCOMMIT_FALSE:
+            break;
+        default:
+            sessionReusable = false;
+        }
+    }
+
     private void sendDataRow(ResultSet rs) throws Exception {
         int columns = rs.getMetaData().getColumnCount();
         String[] values = new String[columns];
@@ -604,7 +706,7 @@ public class PgServerConnection extends AsyncConnection {
         sendMessage();
     }
 
-    private void initDb() throws SQLException {
+    static void initDb(PgServer server, Connection conn) throws SQLException {
         Statement stat = null;
         ResultSet rs = null;
         try {
@@ -673,7 +775,17 @@ public class PgServerConnection extends AsyncConnection {
             return;
         try {
             stop = true;
-            JdbcUtils.closeSilently(conn);
+            pausedTask = null;
+            JdbcUtils.closeSilently(pausedStatement);
+            pendingMessages.clear();
+            for (Prepared p : prepared.values()) {
+                JdbcUtils.closeSilently(p.prep);
+            }
+            prepared.clear();
+            portals.clear();
+            // 暂停的结果集还没有发送完时不把连接放回池中
+            server.getSessionPool().release(databaseName, userName, passwordDigest, conn,
+                    sessionReusable && pausedStatement == null);
             server.trace("Close");
             super.close();
         } catch (Exception e) {
@@ -771,17 +883,31 @@ public class PgServerConnection extends AsyncConnection {
         out.setInt(1, out.length() - 1); // 回填
         if (isQuery) {
             outList.add(out);
-            out = new NetBufferOutput(writableChannel, BUFFER_SIZE, scheduler.getDataBufferFactory());
+            outListLength += out.length();
+            out = createNetBufferOutput();
+            // 结果集很大时不能全部放在内存中
+            if (outListLength >= BATCH_SIZE)
+                flushOutList();
         } else {
-            if (!outList.isEmpty()) {
-                for (NetBufferOutput o : outList)
-                    o.flush();
-                outList.clear();
-            }
+            flushOutList();
             out.flush();
         }
     }
 
+    private void flushOutList() {
+        if (!outList.isEmpty()) {
+            for (NetBufferOutput o : outList)
+                o.flush();
+            outList.clear();
+            outListLength = 0;
+        }
+    }
+
+    private NetBufferOutput createNetBufferOutput() {
+        return new NetBufferOutput(writableChannel, BUFFER_SIZE, scheduler.getDataBufferFactory(),
+                waterMark);
+    }
+
     private void sendParameterStatus(String param, String value) {
         startMessage('S');
         writeString(param);
@@ -872,20 +998,29 @@ public class PgServerConnection extends AsyncConnection {
         }
         if (stop)
             return;
-        out = new NetBufferOutput(writableChannel, BUFFER_SIZE, scheduler.getDataBufferFactory());
+        int x;
+        if (initDone) {
+            x = packetLengthByteBufferInitDone.get();
+            packetLengthByteBufferInitDone.clear();
+            if (x < 0) {
+                stop = true;
+                return;
+            }
+        } else {
+            x = 0;
+        }
+        // 上一个消息的结果集还没有发送完
+        if (pausedTask != null) {
+            pendingMessages.add(() -> handle(x, buffer));
+            return;
+        }
+        handle(x, buffer);
+    }
+
+    private void handle(int x, NetBuffer buffer) {
+        out = createNetBufferOutput();
         in = new NetBufferInput(buffer);
         try {
-            int x;
-            if (initDone) {
-                x = packetLengthByteBufferInitDone.get();
-                packetLengthByteBufferInitDone.clear();
-                if (x < 0) {
-                    stop = true;
-                    return;
-                }
-            } else {
-                x = 0;
-            }
             process(x);
             in.close();
         } catch (Exception e) {
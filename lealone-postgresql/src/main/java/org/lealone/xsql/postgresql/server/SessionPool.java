@@ -0,0 +1,146 @@
+/*
+ * Copyright Lealone Database Group.
+ * Licensed under the Server Side Public License, v 1.
+ * Initial Developer: zhh
+ */
+package org.lealone.xsql.postgresql.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.security.SHA256;
+import org.lealone.common.util.JdbcUtils;
+import org.lealone.db.Database;
+import org.lealone.db.auth.User;
+
+/**
+ * 按数据库和用户分组的内嵌连接池，服务器启动时可以预先创建，客户端断开时把连接放回池中。
+ *
+ * 池中的连接记录了创建它时使用的密码的SHA-256摘要，只有客户端发送的密码相同时才能取出，
+ * 因为修改密码不会影响池中的连接，所以空闲超过maxIdleTime的连接会被关闭。
+ * 服务器启动时预先创建的连接没有密码摘要，取出时按数据库中保存的用户密码哈希验证。
+ * 只有没有改变过会话状态的连接才放回池中，放回之前先回滚未提交的事务。
+ */
+class SessionPool {
+
+    private final int maxSize;
+    private final long maxIdleTime;
+    private final HashMap<String, ArrayDeque<PooledConnection>> pools = new HashMap<>();
+
+    /**
+     * @param maxSize 每个数据库和用户最多保存的空闲连接个数，0表示不使用连接池
+     * @param maxIdleTime 空闲连接最多保存的毫秒数，0表示不限制
+     */
+    SessionPool(int maxSize, long maxIdleTime) {
+        this.maxSize = maxSize;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    Connection poll(String dbName, String user, String password, byte[] passwordDigest) {
+        if (maxSize <= 0)
+            return null;
+        long now = System.currentTimeMillis();
+        while (true) {
+            PooledConnection pc;
+            synchronized (pools) {
+                ArrayDeque<PooledConnection> pool = pools.get(getKey(dbName, user));
+                pc = pool == null ? null : pool.pollLast(); // 最近放回的连接最不可能过期
+            }
+            if (pc == null)
+                return null;
+            if (maxIdleTime > 0 && now - pc.releaseTime >= maxIdleTime) {
+                JdbcUtils.closeSilently(pc.conn);
+                continue;
+            }
+            if (pc.passwordDigest == null ? pc.validatePassword(password)
+                    : MessageDigest.isEqual(pc.passwordDigest, passwordDigest))
+                return pc.conn;
+            // 密码不同，放回去按正常方式创建连接
+            add(dbName, user, pc);
+            return null;
+        }
+    }
+
+    /**
+     * @param reusable 为false时连接的会话状态已经改变过，不能再给其他客户端使用
+     */
+    void release(String dbName, String user, byte[] passwordDigest, Connection conn, boolean reusable) {
+        if (maxSize <= 0 || !reusable) {
+            JdbcUtils.closeSilently(conn);
+            return;
+        }
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (Exception e) {
+            JdbcUtils.closeSilently(conn);
+            return;
+        }
+        if (!add(dbName, user, new PooledConnection(conn, passwordDigest, null)))
+            JdbcUtils.closeSilently(conn);
+    }
+
+    // 预先创建的连接不知道密码，记下用户，取出时再验证
+    void warmUp(String dbName, String userName, User user, Connection conn) {
+        if (!add(dbName, userName, new PooledConnection(conn, null, user)))
+            JdbcUtils.closeSilently(conn);
+    }
+
+    private boolean add(String dbName, String user, PooledConnection pc) {
+        synchronized (pools) {
+            ArrayDeque<PooledConnection> pool = pools.computeIfAbsent(getKey(dbName, user),
+                    k -> new ArrayDeque<>());
+            if (pool.size() >= maxSize)
+                return false;
+            pool.addLast(pc);
+            return true;
+        }
+    }
+
+    private static String getKey(String dbName, String user) {
+        return dbName + '\0' + user;
+    }
+
+    static byte[] getPasswordDigest(String password) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return md.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    private static class PooledConnection {
+
+        final Connection conn;
+        final byte[] passwordDigest;
+        final User user;
+        final long releaseTime = System.currentTimeMillis();
+
+        PooledConnection(Connection conn, byte[] passwordDigest, User user) {
+            this.conn = conn;
+            this.passwordDigest = passwordDigest;
+            this.user = user;
+        }
+
+        // 用户已经被删除或密码不对时都不能使用这个连接
+        boolean validatePassword(String password) {
+            Database db = user.getDatabase();
+            if (db.findUser(db.getSystemSession(), user.getName()) != user)
+                return false;
+            return user.validateUserPasswordHash(
+                    SHA256.getKeyPasswordHash(user.getName(), password.toCharArray()));
+        }
+    }
+}